@@ -8,66 +8,135 @@ import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.LinkedHashMultiset;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.Multisets;
-import com.google.common.collect.Sets;
 import com.ocado.basket.error.InvalidConfigurationException;
-
+import com.ocado.basket.traffic.TrafficRecorder;
+
+/**
+ * Splits basket items into delivery types.
+ * Configuration is copied into unmodifiable collections in constructor and every call to
+ * {@link #split(List)} keeps state of the call in local variables. The only mutable state shared
+ * between calls are lock-free statistics of adaptive mode and volatile reference to optional
+ * traffic recorder, which is changed by {@link #startRecording} and {@link #stopRecording}.
+ * That makes a single instance safe to share between any number of threads without external
+ * synchronization, and {@code split} does not acquire any shared lock.
+ */
 final public class BasketSplitter {
     private final Map<String, List<String>> deliveryTypesForProducts;
     private final Set<String> availableDeliveryTypes;
+    // delivery type with id i is bit i of delivery group mask, ids follow iteration order of available delivery types
+    private final List<String> indexedDeliveryTypes;
+    private final DeliveryTypeStatistics deliveryTypeStatistics;
+    private volatile TrafficRecorder trafficRecorder;
 
     public BasketSplitter(String absolutePathToConfigFile) {
-        deliveryTypesForProducts = readConfig(absolutePathToConfigFile);
+        this(absolutePathToConfigFile, false);
+    }
+
+    /**
+     * @param absolutePathToConfigFile absolute path to configuration file.
+     * @param adaptiveOrdering if true, splitter learns which delivery types are chosen and checks
+     * likely delivery groups first. Result of {@link #split(List)} is the same in both modes.
+     */
+    public BasketSplitter(String absolutePathToConfigFile, boolean adaptiveOrdering) {
+        Map<String, List<String>> config = new LinkedHashMap<>();
+        readConfig(absolutePathToConfigFile).forEach((product, deliveryTypes) -> config.put(product, List.copyOf(deliveryTypes)));
+        deliveryTypesForProducts = Collections.unmodifiableMap(config);
 
-        availableDeliveryTypes =
+        availableDeliveryTypes = Collections.unmodifiableSet(
                 deliveryTypesForProducts.values()
                         .stream()
                         .flatMap(List::stream)
-                        .collect(Collectors.toSet());
+                        .collect(Collectors.toSet()));
+
+        indexedDeliveryTypes = List.copyOf(availableDeliveryTypes);
+        deliveryTypeStatistics = adaptiveOrdering ? new DeliveryTypeStatistics(indexedDeliveryTypes) : null;
+    }
+
+    /**
+     * @return learned statistics, which can be exported and imported, or empty optional if adaptive ordering is disabled.
+     */
+    public Optional<DeliveryTypeStatistics> getDeliveryTypeStatistics() {
+        return Optional.ofNullable(deliveryTypeStatistics);
+    }
+
+    /**
+     * @return products from configuration in order of configuration file - product ids in traffic logs are indexes in this list.
+     */
+    public List<String> getProducts() {
+        return List.copyOf(deliveryTypesForProducts.keySet());
+    }
+
+    /**
+     * Starts recording inputs of {@link #split(List)} calls. Recording is off by default.
+     * @param recorder recorder opened with products of this splitter.
+     */
+    public void startRecording(TrafficRecorder recorder) {
+        trafficRecorder = recorder;
+    }
+
+    /**
+     * Stops recording inputs. Recorder is not closed - that is responsibility of caller.
+     */
+    public void stopRecording() {
+        trafficRecorder = null;
     }
 
     /**
      * Splits items into possibly the lowest delivery group, which contains delivery
      * type covering the largest number of products.
+     * This method is thread-safe - it can be called concurrently on a shared instance.
      * @param items a list of items in basket.
      * @return a map with assigned items to delivery types.
      * @throws InvalidConfigurationException if there were any problems with configuration
      * file for example: invalid json format or config file was not found.
+     * @throws IllegalArgumentException if basket contains product which is not in configuration.
      */
 
     public Map<String, List<String>> split(List<String> items) throws InvalidConfigurationException {
+        return splitToResult(items);
+    }
+
+    /**
+     * Splits items the same way as {@link #split(List)}, but returns compact result, which
+     * can be serialized to json without building intermediate collections.
+     * This method is thread-safe - it can be called concurrently on a shared instance.
+     * @param items a list of items in basket.
+     * @return a compact result, which is also a lazy map view with assigned items to delivery types.
+     * @throws InvalidConfigurationException if there were any problems with configuration
+     * file for example: invalid json format or config file was not found.
+     * @throws IllegalArgumentException if basket contains product which is not in configuration.
+     */
+    public SplitResult splitToResult(List<String> items) throws InvalidConfigurationException {
 
         if(deliveryTypesForProducts.isEmpty())
             throw new InvalidConfigurationException("Invalid configuration - configuration found: " + deliveryTypesForProducts);
 
-        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = assignItemsToDeliveryGroups(items);
-
-        System.out.println("\nAssigned items to delivery groups:");
-        System.out.println(assignedItemsToDeliveryGroups);
+        TrafficRecorder recorder = trafficRecorder;
+        if(recorder != null)
+            recorder.record(items);
 
-        List<Set<String>> deliveryGroups = findMinimalDeliveryGroups(items, assignedItemsToDeliveryGroups);
+        // products with number of their copies, in order of the first occurrence in basket
+        Multiset<String> basket = LinkedHashMultiset.create(items);
 
-        System.out.println("\nDelivery groups with minimal number of delivery types:");
-        System.out.println(deliveryGroups);
+        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = assignItemsToDeliveryGroups(basket);
 
-        Set<String> bestDeliveryGroup = getDeliveryGroupWithTheMostItems(deliveryGroups, assignedItemsToDeliveryGroups);
+        Set<String> bestDeliveryGroup;
+        if(deliveryTypeStatistics == null){
+            List<Set<String>> deliveryGroups = findMinimalDeliveryGroups(basket, assignedItemsToDeliveryGroups);
 
-        System.out.println("\nDelivery group with the largest number of products for one group:");
-        System.out.println(bestDeliveryGroup);
+            bestDeliveryGroup = getDeliveryGroupWithTheMostItems(deliveryGroups, assignedItemsToDeliveryGroups);
+        }
+        else
+            bestDeliveryGroup = findBestDeliveryGroupAdaptively(basket, assignedItemsToDeliveryGroups);
 
         Map<String, Multiset<String>> assignedItemsToBestDeliveryGroup = new HashMap<>(assignedItemsToDeliveryGroups);
         assignedItemsToBestDeliveryGroup.keySet().retainAll(bestDeliveryGroup);
 
-        System.out.println("\nAssigned items to delivery types from best delivery group:");
-        System.out.println(assignedItemsToBestDeliveryGroup);
-
-        Map<String, List<String>> finalAssignment = assignItemsFromBasketToSpecificDeliveryTypes(items, assignedItemsToBestDeliveryGroup);
-        System.out.println("\nFinal assignment:");
-        System.out.println(finalAssignment);
-
-
-        return finalAssignment;
+        return assignItemsFromBasketToSpecificDeliveryTypes(basket, assignedItemsToBestDeliveryGroup);
     }
 
     /**
@@ -75,23 +144,24 @@ final public class BasketSplitter {
      * with that delivery type as values.
      * Steps:
      *  1) Creates map with delivery types and empty lists as values.
-     *  2) Iterates through items.
-     *  2.1) Iterates through delivery types. For each product adds product to its delivery types.
+     *  2) Iterates through distinct products in basket - product missing in configuration is rejected.
+     *  2.1) Iterates through delivery types. For each product adds product with number of its copies to its delivery types.
      *  In simpler terms it is reversed config map.
-     * @param items a list of items in basket.
+     * @param basket a multiset of items in basket - products with number of their copies.
      * @return map consisting of delivery type as keys and list of items.
+     * @throws IllegalArgumentException if basket contains product which is not in configuration.
      */
-    private Map<String, Multiset<String>> assignItemsToDeliveryGroups(List<String> items){
+    private Map<String, Multiset<String>> assignItemsToDeliveryGroups(Multiset<String> basket){
         Map<String, Multiset<String>> assignedItemsToDeliveryGroups = new HashMap<>();
 
         availableDeliveryTypes.forEach(deliveryType -> assignedItemsToDeliveryGroups.put(deliveryType, HashMultiset.create()));
 
-        for(String item : items){
-            for(String deliveryType : deliveryTypesForProducts.get(item)){
-                Multiset<String> currentProducts = assignedItemsToDeliveryGroups.get(deliveryType);
-                currentProducts.add(item);
-                assignedItemsToDeliveryGroups.put(deliveryType, currentProducts);
-            }
+        for(Multiset.Entry<String> product : basket.entrySet()){
+            List<String> deliveryTypes = deliveryTypesForProducts.get(product.getElement());
+            if(deliveryTypes == null)
+                throw new IllegalArgumentException("Product not found in configuration: " + product.getElement());
+            for(String deliveryType : deliveryTypes)
+                assignedItemsToDeliveryGroups.get(deliveryType).add(product.getElement(), product.getCount());
         }
         return assignedItemsToDeliveryGroups;
     }
@@ -99,44 +169,386 @@ final public class BasketSplitter {
     /**
      * Find delivery groups with the smallest amount of delivery types.
      * Steps:
-     *  1) Creates a set from item list.
-     *  2) Creates power set from delivery types set and sorts it in ascending order, where key is number of delivery types.
-     *  3) Creates variables necessary fo loop.
-     *  4) Iterates through power set using iterator.
-     *  4.1) For each group checks if group cover all items in basket.
-     *  In simpler terms it is reversed config map.
-     * @param items a list of items in basket.
+     *  1) Assigns ids to unique items and creates arrays with ids of unique items covered by every delivery type.
+     *  2) Iterates through sizes of delivery groups in ascending order and stops at the first size with any group covering all items in basket.
+     *  3) Sorts found groups to power set order.
+     * @param basket a multiset of items in basket - products with number of their copies.
      * @param assignedItemsToDeliveryGroups a map containing delivery types as keys and multisets with items as values.
      * @return a list containing groups with minimal number of delivery types that covers all items in basket.
      */
-    private List<Set<String>> findMinimalDeliveryGroups(List<String> items, Map<String, Multiset<String>> assignedItemsToDeliveryGroups){
+    private List<Set<String>> findMinimalDeliveryGroups(Multiset<String> basket, Map<String, Multiset<String>> assignedItemsToDeliveryGroups){
+        checkNumberOfDeliveryTypes(indexedDeliveryTypes.size());
+
+        // #1 step - ids of unique items covered by every delivery type
+        Map<String, Integer> uniqueItems = new HashMap<>();
+        basket.elementSet().forEach(item -> uniqueItems.putIfAbsent(item, uniqueItems.size()));
+        int[][] itemsForDeliveryTypes = itemsForDeliveryTypes(uniqueItems, assignedItemsToDeliveryGroups);
+
+        // #2 step - delivery groups are bit masks of delivery type ids
+        // #1 optimization - starting from groups with the least number of delivery types and stopping at the first size with any group covering all items
+        int[] minimalDeliveryGroups = new int[0];
+        for(int size = 0; size <= itemsForDeliveryTypes.length && minimalDeliveryGroups.length == 0; size++)
+            minimalDeliveryGroups = findCoveringDeliveryGroupsOfSize(itemsForDeliveryTypes, uniqueItems.size(), size);
+
+        // #3 step - ascending masks are in power set order
+        Arrays.sort(minimalDeliveryGroups);
+        List<Set<String>> groups = new ArrayList<>(minimalDeliveryGroups.length);
+        for(int deliveryGroup : minimalDeliveryGroups)
+            groups.add(toDeliveryGroup(deliveryGroup));
+        return groups;
+    }
+
+    /**
+     * @return ids of unique items covered by every delivery type, indexed by delivery type id.
+     */
+    private int[][] itemsForDeliveryTypes(Map<String, Integer> uniqueItems, Map<String, Multiset<String>> assignedItemsToDeliveryGroups){
+        int[][] itemsForDeliveryTypes = new int[indexedDeliveryTypes.size()][];
+        for(int deliveryType = 0; deliveryType < itemsForDeliveryTypes.length; deliveryType++){
+            Set<String> itemsForDeliveryType = itemsOf(indexedDeliveryTypes.get(deliveryType), assignedItemsToDeliveryGroups).elementSet();
+            int[] itemIds = new int[itemsForDeliveryType.size()];
+            int numberOfItemIds = 0;
+            for(String item : itemsForDeliveryType){
+                Integer itemId = uniqueItems.get(item);
+                if(itemId != null)
+                    itemIds[numberOfItemIds++] = itemId;
+            }
+            itemsForDeliveryTypes[deliveryType] = Arrays.copyOf(itemIds, numberOfItemIds);
+        }
+        return itemsForDeliveryTypes;
+    }
+
+    private static Multiset<String> itemsOf(String deliveryType, Map<String, Multiset<String>> assignedItemsToDeliveryGroups){
+        Multiset<String> items = assignedItemsToDeliveryGroups.get(deliveryType);
+        return items == null ? ImmutableMultiset.of() : items;
+    }
 
-        Set<String> uniqueItems = new HashSet<>(items);
-        // #1 optimization - sorting power set to start from sets with the least number of elements
-        List<Set<String>> powerSet = Sets.powerSet(availableDeliveryTypes).stream().sorted(Comparator.comparingInt(Set::size)).toList();
+    /**
+     * Finds delivery groups of given size, which cover all unique items.
+     * Steps:
+     *  1) Iterates through delivery groups in revolving door order - consecutive groups differ by one
+     *  delivery type swapped, so coverage counters of items are updated only for swapped delivery types.
+     *  2) For each group checks if group cover all items in basket - that is a single comparison of uncovered items counter.
+     * @param itemsForDeliveryTypes ids of unique items covered by every delivery type.
+     * @param numberOfUniqueItems number of unique items in basket.
+     * @param size number of delivery types in delivery group.
+     * @return covering delivery groups (bit masks) in revolving door order.
+     */
+    private static int[] findCoveringDeliveryGroupsOfSize(int[][] itemsForDeliveryTypes, int numberOfUniqueItems, int size){
+        int[] coverage = new int[numberOfUniqueItems];
+        int uncoveredItems = numberOfUniqueItems;
+        int previousDeliveryGroup = 0;
+        int[] coveringDeliveryGroups = new int[16];
+        int numberOfCoveringDeliveryGroups = 0;
+        RevolvingDoorOrder deliveryGroups = new RevolvingDoorOrder(itemsForDeliveryTypes.length, size);
+
+        for(int deliveryGroup = deliveryGroups.next(); deliveryGroup >= 0; deliveryGroup = deliveryGroups.next()){
+            // #2 optimization - updating coverage only for delivery types, which were swapped
+            for(int removed = previousDeliveryGroup & ~deliveryGroup; removed != 0; removed &= removed - 1){
+                for(int item : itemsForDeliveryTypes[Integer.numberOfTrailingZeros(removed)]){
+                    if(--coverage[item] == 0)
+                        uncoveredItems++;
+                }
+            }
+            for(int added = deliveryGroup & ~previousDeliveryGroup; added != 0; added &= added - 1){
+                for(int item : itemsForDeliveryTypes[Integer.numberOfTrailingZeros(added)]){
+                    if(coverage[item]++ == 0)
+                        uncoveredItems--;
+                }
+            }
+            previousDeliveryGroup = deliveryGroup;
 
-        List<Set<String>> groups = new LinkedList<>();
-        int minNumberOfDeliveryTypes = 0;
-        boolean groupSizeExceededMinimal = false;
+            if(uncoveredItems == 0){
+                if(numberOfCoveringDeliveryGroups == coveringDeliveryGroups.length)
+                    coveringDeliveryGroups = Arrays.copyOf(coveringDeliveryGroups, 2 * numberOfCoveringDeliveryGroups);
+                coveringDeliveryGroups[numberOfCoveringDeliveryGroups++] = deliveryGroup;
+            }
+        }
+        return Arrays.copyOf(coveringDeliveryGroups, numberOfCoveringDeliveryGroups);
+    }
 
-        for (ListIterator<Set<String>> iterator = powerSet.listIterator(); iterator.hasNext() && !groupSizeExceededMinimal;) {
+    /**
+     * Generates all bit masks with given number of bits set, in revolving door order - every mask differs
+     * from the previous one by one bit removed and one bit added (Knuth, TAOCP 7.2.1.3, algorithm R).
+     * Masks are generated one by one, so no array of all delivery groups is allocated on every split.
+     */
+    private static final class RevolvingDoorOrder {
+        private final int numberOfDeliveryTypes;
+        private final int size;
+        // positions[1..size] are ids of delivery types in current group, positions[size + 1] is sentinel
+        private final int[] positions;
+        private int deliveryGroup;
+        private boolean started;
+
+        RevolvingDoorOrder(int numberOfDeliveryTypes, int size) {
+            this.numberOfDeliveryTypes = numberOfDeliveryTypes;
+            this.size = size;
+            positions = new int[size + 2];
+            for(int j = 1; j <= size; j++)
+                positions[j] = j - 1;
+            positions[size + 1] = numberOfDeliveryTypes;
+            deliveryGroup = (1 << size) - 1;
+        }
 
-            Set<String> currentDeliveryGroup = iterator.next();
-            // #2 optimization - after finding first set of delivery types fulfilling requirements checking only sets with the same number of delivery types
-            if(!groups.isEmpty() && currentDeliveryGroup.size() > minNumberOfDeliveryTypes){
-                groupSizeExceededMinimal = true;
+        /**
+         * @return next delivery group or -1 if all delivery groups were generated.
+         */
+        int next(){
+            if(!started){
+                started = true;
+                return deliveryGroup;
+            }
+            if(size == 0 || size == numberOfDeliveryTypes)
+                return -1;
+
+            int j = 2;
+            if((size & 1) == 1){
+                if(positions[1] + 1 < positions[2]){
+                    move(1, positions[1] + 1);
+                    return deliveryGroup;
+                }
             }
             else{
-                Set<String> itemsForCurrentDeliveryGroup = new HashSet<>();
-                currentDeliveryGroup.forEach(deliveryType -> itemsForCurrentDeliveryGroup.addAll(assignedItemsToDeliveryGroups.getOrDefault(deliveryType, HashMultiset.create())));
+                if(positions[1] > 0){
+                    move(1, positions[1] - 1);
+                    return deliveryGroup;
+                }
+                if(tryToIncrease(j))
+                    return deliveryGroup;
+                j++;
+            }
+
+            while(j <= size){
+                if(tryToDecrease(j))
+                    return deliveryGroup;
+                if(++j > size)
+                    break;
+                if(tryToIncrease(j))
+                    return deliveryGroup;
+                j++;
+            }
+            return -1;
+        }
+
+        private boolean tryToDecrease(int j){
+            if(positions[j] < j)
+                return false;
+            move(j, positions[j - 1]);
+            move(j - 1, j - 2);
+            return true;
+        }
+
+        private boolean tryToIncrease(int j){
+            if(positions[j] + 1 >= positions[j + 1])
+                return false;
+            move(j - 1, positions[j]);
+            move(j, positions[j] + 1);
+            return true;
+        }
+
+        // toggling bits keeps mask right even when two positions are equal for a moment
+        private void move(int j, int position){
+            deliveryGroup ^= 1 << positions[j];
+            positions[j] = position;
+            deliveryGroup ^= 1 << position;
+        }
+    }
+
+    private Set<String> toDeliveryGroup(int deliveryGroup){
+        Set<String> deliveryTypes = new HashSet<>();
+        for(int rest = deliveryGroup; rest != 0; rest &= rest - 1)
+            deliveryTypes.add(indexedDeliveryTypes.get(Integer.numberOfTrailingZeros(rest)));
+        return deliveryTypes;
+    }
+
+    // delivery groups are stored as int bit masks
+    private static void checkNumberOfDeliveryTypes(int numberOfDeliveryTypes){
+        if(numberOfDeliveryTypes > 30)
+            throw new IllegalStateException("Too many delivery types to search delivery groups: " + numberOfDeliveryTypes + " > 30");
+    }
+
+    /**
+     * Finds the same delivery group as {@link #findMinimalDeliveryGroups} followed by {@link #getDeliveryGroupWithTheMostItems},
+     * but starts from delivery groups most often chosen for previous baskets.
+     * Steps:
+     *  1) Creates arrays and bit masks of unique items covered by every delivery type and counts items for every delivery type.
+     *  2) Iterates through sizes of delivery groups in ascending order.
+     *  2.1) Checks learned delivery groups of current size - groups containing frequently chosen delivery types
+     *  and pairs of delivery types. If any of them covers all items, the best of them is the best group found so far
+     *  and it is enough to check only groups, which can beat it.
+     *  2.2) Otherwise checks all groups of current size in revolving door order, like {@link #findMinimalDeliveryGroups}.
+     *  3) Records chosen delivery group in statistics.
+     * The best group contains delivery type covering the largest number of products and in case of a tie it
+     * comes first in power set order - the same rule as in {@link #getDeliveryGroupWithTheMostItems}, so the
+     * result does not depend on learned groups. Good learned groups only make the search shorter.
+     * @param basket a multiset of items in basket - products with number of their copies.
+     * @param assignedItemsToDeliveryGroups a map containing delivery types as keys and multisets with items as values.
+     * @return a set with delivery types, which consists of delivery type covering the largest number of products.
+     */
+    private Set<String> findBestDeliveryGroupAdaptively(Multiset<String> basket, Map<String, Multiset<String>> assignedItemsToDeliveryGroups){
+        int numberOfDeliveryTypes = indexedDeliveryTypes.size();
+        checkNumberOfDeliveryTypes(numberOfDeliveryTypes);
+
+        // #1 step - unique items covered by every delivery type as ids and as bit masks, number of items for every delivery type
+        Map<String, Integer> uniqueItems = new HashMap<>();
+        basket.elementSet().forEach(item -> uniqueItems.putIfAbsent(item, uniqueItems.size()));
+        int[][] itemsForDeliveryTypes = itemsForDeliveryTypes(uniqueItems, assignedItemsToDeliveryGroups);
+
+        // words of delivery type t are itemMasksForDeliveryTypes[t * numberOfWords .. (t + 1) * numberOfWords)
+        int numberOfWords = (uniqueItems.size() + 63) >>> 6;
+        long[] itemMasksForDeliveryTypes = new long[numberOfDeliveryTypes * numberOfWords];
+        int[] numberOfItemsForDeliveryTypes = new int[numberOfDeliveryTypes];
+        for(int deliveryType = 0; deliveryType < numberOfDeliveryTypes; deliveryType++){
+            for(int item : itemsForDeliveryTypes[deliveryType])
+                itemMasksForDeliveryTypes[deliveryType * numberOfWords + (item >>> 6)] |= 1L << item;
+            numberOfItemsForDeliveryTypes[deliveryType] = itemsOf(indexedDeliveryTypes.get(deliveryType), assignedItemsToDeliveryGroups).size();
+        }
+
+        // #2 step - delivery groups are bit masks of delivery type ids, ascending mask is power set order
+        int bestDeliveryGroup = -1;
+        int mostProductsForOneDeliveryType = -1;
+        for(int size = 0; size <= numberOfDeliveryTypes && bestDeliveryGroup < 0; size++){
+            for(int deliveryGroup : deliveryTypeStatistics.mostLikelyDeliveryGroups(size)){
+                int productsForCurrentDeliveryGroup = mostProductsForOneDeliveryType(deliveryGroup, numberOfItemsForDeliveryTypes);
+                if(beatsBestGroup(deliveryGroup, productsForCurrentDeliveryGroup, bestDeliveryGroup, mostProductsForOneDeliveryType)
+                        && coversAllItems(deliveryGroup, itemMasksForDeliveryTypes, uniqueItems.size())){
+                    bestDeliveryGroup = deliveryGroup;
+                    mostProductsForOneDeliveryType = productsForCurrentDeliveryGroup;
+                }
+            }
 
-                if(Sets.difference(uniqueItems, itemsForCurrentDeliveryGroup).isEmpty() && (minNumberOfDeliveryTypes == 0 || currentDeliveryGroup.size() == minNumberOfDeliveryTypes)){
-                    minNumberOfDeliveryTypes = currentDeliveryGroup.size();
-                    groups.add(currentDeliveryGroup);
+            if(bestDeliveryGroup >= 0){
+                // #2.1 step - searching until no group beats the best one
+                for(int betterDeliveryGroup = findBetterDeliveryGroup(bestDeliveryGroup, mostProductsForOneDeliveryType, numberOfItemsForDeliveryTypes, itemMasksForDeliveryTypes, uniqueItems.size());
+                    betterDeliveryGroup >= 0;
+                    betterDeliveryGroup = findBetterDeliveryGroup(bestDeliveryGroup, mostProductsForOneDeliveryType, numberOfItemsForDeliveryTypes, itemMasksForDeliveryTypes, uniqueItems.size())){
+                    bestDeliveryGroup = betterDeliveryGroup;
+                    mostProductsForOneDeliveryType = mostProductsForOneDeliveryType(bestDeliveryGroup, numberOfItemsForDeliveryTypes);
+                }
+            }
+            else{
+                // #2.2 step - all covering groups of current size
+                for(int deliveryGroup : findCoveringDeliveryGroupsOfSize(itemsForDeliveryTypes, uniqueItems.size(), size)){
+                    int productsForCurrentDeliveryGroup = mostProductsForOneDeliveryType(deliveryGroup, numberOfItemsForDeliveryTypes);
+                    if(beatsBestGroup(deliveryGroup, productsForCurrentDeliveryGroup, bestDeliveryGroup, mostProductsForOneDeliveryType)){
+                        bestDeliveryGroup = deliveryGroup;
+                        mostProductsForOneDeliveryType = productsForCurrentDeliveryGroup;
+                    }
                 }
             }
         }
-        return groups;
+
+        // in case of empty basket no delivery type is chosen
+        if(bestDeliveryGroup < 0 || mostProductsForOneDeliveryType == 0)
+            return new HashSet<>();
+
+        // #3 step - learning
+        deliveryTypeStatistics.record(bestDeliveryGroup);
+        return toDeliveryGroup(bestDeliveryGroup);
+    }
+
+    private static boolean beatsBestGroup(int deliveryGroup, int productsForDeliveryGroup, int bestDeliveryGroup, int mostProductsForOneDeliveryType){
+        return bestDeliveryGroup < 0
+                || productsForDeliveryGroup > mostProductsForOneDeliveryType
+                || (productsForDeliveryGroup == mostProductsForOneDeliveryType && deliveryGroup < bestDeliveryGroup);
+    }
+
+    /**
+     * Searches for covering delivery group of the same size, which beats given group. Only groups with delivery
+     * type covering at least as many products as given group can beat it, so every such delivery type is an anchor:
+     * groups containing the anchor are generated together with delivery types, which were not anchors before - that
+     * way every group is generated once. Any covering group with anchor covering more products beats given group,
+     * anchors covering as many products generate groups in ascending order and stop at given group.
+     * @return covering delivery group, which beats given group, or -1 if there is no such group.
+     */
+    private static int findBetterDeliveryGroup(int bestDeliveryGroup, int mostProductsForOneDeliveryType, int[] numberOfItemsForDeliveryTypes, long[] itemMasksForDeliveryTypes, int numberOfUniqueItems){
+        int size = Integer.bitCount(bestDeliveryGroup);
+        // anchors covering more products are checked first - they are more likely to give the best group
+        int strongerAnchors = 0;
+        int equalAnchors = 0;
+        for(int deliveryType = 0; deliveryType < numberOfItemsForDeliveryTypes.length; deliveryType++){
+            if(numberOfItemsForDeliveryTypes[deliveryType] > mostProductsForOneDeliveryType)
+                strongerAnchors |= 1 << deliveryType;
+            else if(numberOfItemsForDeliveryTypes[deliveryType] == mostProductsForOneDeliveryType)
+                equalAnchors |= 1 << deliveryType;
+        }
+
+        int otherDeliveryTypes = (1 << numberOfItemsForDeliveryTypes.length) - 1;
+        for(int phase = 0; phase < 2; phase++){
+            int limit = phase == 0 ? Integer.MAX_VALUE : bestDeliveryGroup;
+            for(int anchors = phase == 0 ? strongerAnchors : equalAnchors; anchors != 0; anchors &= anchors - 1){
+                int anchorDeliveryType = anchors & -anchors;
+                otherDeliveryTypes &= ~anchorDeliveryType;
+
+                SubsetOrder deliveryGroups = new SubsetOrder(otherDeliveryTypes, size - 1);
+                for(int subset = deliveryGroups.next(); subset >= 0; subset = deliveryGroups.next()){
+                    int deliveryGroup = subset | anchorDeliveryType;
+                    if(deliveryGroup >= limit)
+                        break;
+                    if(coversAllItems(deliveryGroup, itemMasksForDeliveryTypes, numberOfUniqueItems))
+                        return deliveryGroup;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Generates subsets of given size of delivery types from a bit mask in ascending order (Gosper's hack over
+     * indexes of delivery types in the mask).
+     */
+    private static final class SubsetOrder {
+        private final int[] deliveryTypes;
+        private int subset;
+
+        SubsetOrder(int deliveryTypesMask, int size) {
+            deliveryTypes = new int[Integer.bitCount(deliveryTypesMask)];
+            int index = 0;
+            for(int rest = deliveryTypesMask; rest != 0; rest &= rest - 1)
+                deliveryTypes[index++] = Integer.numberOfTrailingZeros(rest);
+            subset = size < 0 || size > deliveryTypes.length ? -1 : (1 << size) - 1;
+        }
+
+        /**
+         * @return next subset as bit mask of delivery type ids or -1 if all subsets were generated.
+         */
+        int next(){
+            if(subset < 0 || subset >= 1 << deliveryTypes.length)
+                return -1;
+
+            int deliveryGroup = 0;
+            for(int rest = subset; rest != 0; rest &= rest - 1)
+                deliveryGroup |= 1 << deliveryTypes[Integer.numberOfTrailingZeros(rest)];
+
+            if(subset == 0)
+                subset = -1;
+            else{
+                int lowestBit = subset & -subset;
+                int ripple = subset + lowestBit;
+                subset = (((ripple ^ subset) >>> 2) / lowestBit) | ripple;
+            }
+            return deliveryGroup;
+        }
+    }
+
+    private static int mostProductsForOneDeliveryType(int deliveryGroup, int[] numberOfItemsForDeliveryTypes){
+        int mostProductsForOneDeliveryType = 0;
+        for(int rest = deliveryGroup; rest != 0; rest &= rest - 1)
+            mostProductsForOneDeliveryType = Math.max(mostProductsForOneDeliveryType, numberOfItemsForDeliveryTypes[Integer.numberOfTrailingZeros(rest)]);
+        return mostProductsForOneDeliveryType;
+    }
+
+    // compares union of item masks word by word and stops at the first word with uncovered item
+    private static boolean coversAllItems(int deliveryGroup, long[] itemMasksForDeliveryTypes, int numberOfUniqueItems){
+        int numberOfWords = (numberOfUniqueItems + 63) >>> 6;
+        for(int word = 0; word < numberOfWords; word++){
+            long coveredItems = 0;
+            for(int rest = deliveryGroup; rest != 0; rest &= rest - 1)
+                coveredItems |= itemMasksForDeliveryTypes[Integer.numberOfTrailingZeros(rest) * numberOfWords + word];
+            long allItems = word < numberOfWords - 1 || (numberOfUniqueItems & 63) == 0 ? -1L : (1L << numberOfUniqueItems) - 1;
+            if(coveredItems != allItems)
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -175,12 +587,11 @@ final public class BasketSplitter {
      *  5) Iterates through delivery types in *the best group*. For each delivery type adds its
      *  items to delivery type - starts from variable containing delivery type covering the
      *  largest number of products. Additionally checks if all delivery types have been used.
-     * @param items a list of items in basket.
+     * @param basket a multiset of items in basket - products with number of their copies.
      * @param assignedItemsToBestDeliveryGroup a map containing delivery types from *the best group* as keys and multisets with items as values.
-     * @return a map with final assignment of items to delivery types in form K - delivery type, V - list of items.
+     * @return a result with final assignment of items to delivery types, which is a map in form K - delivery type, V - list of items.
      */
-
-    private Map<String, List<String>> assignItemsFromBasketToSpecificDeliveryTypes(List<String> items, Map<String, Multiset<String>> assignedItemsToBestDeliveryGroup){
+    private SplitResult assignItemsFromBasketToSpecificDeliveryTypes(Multiset<String> basket, Map<String, Multiset<String>> assignedItemsToBestDeliveryGroup){
         String empty = "EMPTY";
         // #1 step - choosing the largest item group
         String currentDeliveryType = assignedItemsToBestDeliveryGroup.entrySet()
@@ -191,20 +602,28 @@ final public class BasketSplitter {
 
         // in case of empty basket
         if(currentDeliveryType.equals(empty))
-            return Map.of();
+            return SplitResult.empty();
         else{
-            // 2# step - assign items to final delivery type
+            // 2# step - assign products with number of their copies to final delivery type
             Set<String> deliveryTypesLeft = new HashSet<>(assignedItemsToBestDeliveryGroup.keySet());
             Multiset<String> currentListOfProducts = HashMultiset.create(assignedItemsToBestDeliveryGroup.get(currentDeliveryType));
 
-            Map<String, List<String>> finalAssignment = new HashMap<>();
-            Multiset<String> itemsLeft = HashMultiset.create(items);
+            String[] deliveryTypes = new String[assignedItemsToBestDeliveryGroup.size()];
+            int distinctProducts = basket.elementSet().size();
+            String[] products = new String[distinctProducts];
+            int[] counts = new int[distinctProducts];
+            int[] deliveryTypeIds = new int[distinctProducts];
+            int numberOfRuns = 0;
             Multiset<String> itemsAssigned = HashMultiset.create();
 
-            for(int i = 0; i < assignedItemsToBestDeliveryGroup.size(); i++) {
+            for(int deliveryTypeId = 0; deliveryTypeId < deliveryTypes.length; deliveryTypeId++) {
                 deliveryTypesLeft.remove(currentDeliveryType);
-                finalAssignment.put(currentDeliveryType, currentListOfProducts.stream().toList());
-                itemsLeft.removeAll(currentListOfProducts);
+                deliveryTypes[deliveryTypeId] = currentDeliveryType;
+                for(Multiset.Entry<String> product : currentListOfProducts.entrySet()){
+                    products[numberOfRuns] = product.getElement();
+                    counts[numberOfRuns] = product.getCount();
+                    deliveryTypeIds[numberOfRuns++] = deliveryTypeId;
+                }
                 itemsAssigned.addAll(currentListOfProducts);
 
                 if(!deliveryTypesLeft.isEmpty()){
@@ -213,7 +632,7 @@ final public class BasketSplitter {
                 }
 
             }
-            return finalAssignment;
+            return new SplitResult(deliveryTypes, products, counts, deliveryTypeIds, numberOfRuns);
         }
     }
 
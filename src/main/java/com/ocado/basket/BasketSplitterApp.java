@@ -28,6 +28,7 @@ public class BasketSplitterApp {
         System.out.println("Items:\n");
         System.out.println(items);
 
-        basketSplitter.split(items);
+        System.out.println("\nFinal assignment:");
+        System.out.println(basketSplitter.split(items));
     }
 }
@@ -0,0 +1,266 @@
+package com.ocado.basket;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Learned statistics of delivery types chosen by {@link BasketSplitter} in adaptive mode.
+ * Counts how often each delivery type and each pair of delivery types ended up in the chosen
+ * delivery group, and how many chosen delivery groups had every size. Counters are lock-free
+ * {@link LongAdder}s, so recording is safe and cheap from any number of threads.
+ * <p>
+ * The most likely delivery groups of every size are cached and scored again only when number of recorded
+ * groups of that size doubled or grew by {@value #REFRESH_INTERVAL} since the last scoring, so the search
+ * does not score delivery groups on every split.
+ * <p>
+ * Statistics can be exported as json and imported in a fresh JVM, so the search starts warm:
+ * <pre>
+ * {"deliveryTypes": {"Courier": 120, ...}, "pairs": {"Courier": {"Parcel locker": 80, ...}, ...}, "sizes": {"2": 95, ...}}
+ * </pre>
+ */
+public final class DeliveryTypeStatistics {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    static final long REFRESH_INTERVAL = 1024;
+    static final int MOST_LIKELY_DELIVERY_GROUPS = 8;
+
+    private record MostLikelyDeliveryGroups(int[] deliveryGroups, long recordedGroups) {
+    }
+
+    private final List<String> deliveryTypes;
+    private final Map<String, Integer> deliveryTypeIds;
+    private final LongAdder[] deliveryTypeCounters;
+    // pair (i, j), i < j, is stored at i * n + j
+    private final LongAdder[] pairCounters;
+    // number of recorded delivery groups, indexed by size of delivery group
+    private final LongAdder[] recordedGroups;
+    // delivery groups with the highest score, indexed by size of delivery group
+    private final AtomicReferenceArray<MostLikelyDeliveryGroups> mostLikelyDeliveryGroups;
+
+    DeliveryTypeStatistics(List<String> deliveryTypes) {
+        this.deliveryTypes = List.copyOf(deliveryTypes);
+        int n = deliveryTypes.size();
+
+        Map<String, Integer> ids = new HashMap<>();
+        for(int i = 0; i < n; i++)
+            ids.put(deliveryTypes.get(i), i);
+        this.deliveryTypeIds = Collections.unmodifiableMap(ids);
+
+        deliveryTypeCounters = new LongAdder[n];
+        for(int i = 0; i < n; i++)
+            deliveryTypeCounters[i] = new LongAdder();
+
+        pairCounters = new LongAdder[n * n];
+        for(int i = 0; i < n; i++){
+            for(int j = i + 1; j < n; j++)
+                pairCounters[i * n + j] = new LongAdder();
+        }
+        recordedGroups = new LongAdder[n + 1];
+        for(int size = 0; size <= n; size++)
+            recordedGroups[size] = new LongAdder();
+        mostLikelyDeliveryGroups = new AtomicReferenceArray<>(n + 1);
+    }
+
+    /**
+     * @return delivery types in order of their ids - bit i of delivery group mask is delivery type with id i.
+     */
+    public List<String> deliveryTypes(){
+        return deliveryTypes;
+    }
+
+    public long count(String deliveryType){
+        Integer id = deliveryTypeIds.get(deliveryType);
+        return id == null ? 0 : deliveryTypeCounters[id].sum();
+    }
+
+    public long count(String deliveryType, String otherDeliveryType){
+        Integer id = deliveryTypeIds.get(deliveryType);
+        Integer otherId = deliveryTypeIds.get(otherDeliveryType);
+        if(id == null || otherId == null || id.equals(otherId))
+            return 0;
+        return pairCounters[Math.min(id, otherId) * deliveryTypes.size() + Math.max(id, otherId)].sum();
+    }
+
+    /**
+     * Records chosen delivery group.
+     * @param deliveryGroup bit mask of delivery type ids.
+     */
+    void record(int deliveryGroup){
+        int n = deliveryTypes.size();
+        for(int rest = deliveryGroup; rest != 0; rest &= rest - 1){
+            int i = Integer.numberOfTrailingZeros(rest);
+            deliveryTypeCounters[i].increment();
+            for(int others = rest & (rest - 1); others != 0; others &= others - 1)
+                pairCounters[i * n + Integer.numberOfTrailingZeros(others)].increment();
+        }
+        recordedGroups[Integer.bitCount(deliveryGroup)].increment();
+    }
+
+    /**
+     * Returns up to {@value #MOST_LIKELY_DELIVERY_GROUPS} delivery groups of given size with the highest learned
+     * score, in descending order - ties keep ascending (power set) order. Score of delivery group is sum of counters
+     * of its delivery types and pairs of delivery types. Groups are cached and shared between threads - caller must not modify them.
+     * Outdated groups are scored again by only one thread, the others get outdated groups until new ones are published.
+     * @param size number of delivery types in delivery group.
+     * @return bit masks of delivery type ids, empty if no delivery group of given size was recorded yet.
+     */
+    int[] mostLikelyDeliveryGroups(int size){
+        long recorded = recordedGroups[size].sum();
+        if(recorded == 0)
+            return new int[0];
+
+        MostLikelyDeliveryGroups deliveryGroups = mostLikelyDeliveryGroups.get(size);
+        if(deliveryGroups != null && !isOutdated(deliveryGroups, recorded))
+            return deliveryGroups.deliveryGroups();
+
+        // only one thread scores delivery groups - it claims refresh by marking outdated groups as current,
+        // other threads keep using outdated groups (or none at first) until new ones are published
+        int[] outdatedDeliveryGroups = deliveryGroups == null ? new int[0] : deliveryGroups.deliveryGroups();
+        MostLikelyDeliveryGroups claimed = new MostLikelyDeliveryGroups(outdatedDeliveryGroups, recorded);
+        if(!mostLikelyDeliveryGroups.compareAndSet(size, deliveryGroups, claimed)){
+            MostLikelyDeliveryGroups current = mostLikelyDeliveryGroups.get(size);
+            return current == null ? outdatedDeliveryGroups : current.deliveryGroups();
+        }
+
+        int[] scoredDeliveryGroups = deliveryGroupsWithTheHighestScore(size, snapshot());
+        // statistics imported in the meantime reset cache - groups scored before import are not published
+        mostLikelyDeliveryGroups.compareAndSet(size, claimed, new MostLikelyDeliveryGroups(scoredDeliveryGroups, recorded));
+        return scoredDeliveryGroups;
+    }
+
+    private static boolean isOutdated(MostLikelyDeliveryGroups deliveryGroups, long recorded){
+        long recordedAtScoring = deliveryGroups.recordedGroups();
+        return recorded > recordedAtScoring && (recorded >= 2 * recordedAtScoring || recorded - recordedAtScoring >= REFRESH_INTERVAL);
+    }
+
+    /**
+     * Takes snapshot of counters, which is used to score delivery groups.
+     * @return scores of delivery types at index i * n + i and of pairs at index i * n + j (i < j).
+     */
+    long[] snapshot(){
+        int n = deliveryTypes.size();
+        long[] scores = new long[n * n];
+        for(int i = 0; i < n; i++){
+            scores[i * n + i] = deliveryTypeCounters[i].sum();
+            for(int j = i + 1; j < n; j++)
+                scores[i * n + j] = pairCounters[i * n + j].sum();
+        }
+        return scores;
+    }
+
+    /**
+     * Writes statistics as json. Delivery types are stored by name, so statistics stay valid
+     * when order of delivery types in a new JVM is different.
+     * @param output stream to write to - it is not closed.
+     * @throws IOException if writing failed.
+     */
+    public void exportTo(OutputStream output) throws IOException {
+        ObjectNode root = MAPPER.createObjectNode();
+        ObjectNode deliveryTypeNode = root.putObject("deliveryTypes");
+        ObjectNode pairNode = root.putObject("pairs");
+        int n = deliveryTypes.size();
+
+        for(int i = 0; i < n; i++){
+            deliveryTypeNode.put(deliveryTypes.get(i), deliveryTypeCounters[i].sum());
+            ObjectNode pairsOfDeliveryType = pairNode.putObject(deliveryTypes.get(i));
+            for(int j = i + 1; j < n; j++)
+                pairsOfDeliveryType.put(deliveryTypes.get(j), pairCounters[i * n + j].sum());
+        }
+        ObjectNode sizeNode = root.putObject("sizes");
+        for(int size = 0; size <= n; size++)
+            sizeNode.put(String.valueOf(size), recordedGroups[size].sum());
+        MAPPER.writerWithDefaultPrettyPrinter().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(output, root);
+    }
+
+    /**
+     * Adds exported statistics to counters. Delivery types unknown to this configuration and sizes
+     * of delivery groups larger than number of delivery types are ignored.
+     * @param input stream with json written by {@link #exportTo(OutputStream)}.
+     * @throws IOException if statistics could not be read.
+     */
+    public void importFrom(InputStream input) throws IOException {
+        JsonNode root = MAPPER.readTree(input);
+        if(root == null)
+            return;
+
+        root.path("deliveryTypes").fields().forEachRemaining(entry -> {
+            Integer id = deliveryTypeIds.get(entry.getKey());
+            if(id != null)
+                deliveryTypeCounters[id].add(entry.getValue().asLong());
+        });
+
+        root.path("pairs").fields().forEachRemaining(entry -> {
+            Integer id = deliveryTypeIds.get(entry.getKey());
+            if(id == null)
+                return;
+            entry.getValue().fields().forEachRemaining(pair -> {
+                Integer otherId = deliveryTypeIds.get(pair.getKey());
+                if(otherId != null && !otherId.equals(id))
+                    pairCounters[Math.min(id, otherId) * deliveryTypes.size() + Math.max(id, otherId)].add(pair.getValue().asLong());
+            });
+        });
+
+        root.path("sizes").fields().forEachRemaining(entry -> {
+            if(!entry.getKey().matches("\\d{1,2}"))
+                return;
+            int size = Integer.parseInt(entry.getKey());
+            if(size < recordedGroups.length)
+                recordedGroups[size].add(entry.getValue().asLong());
+        });
+
+        // scores changed, cached delivery groups must be scored again
+        for(int size = 0; size < mostLikelyDeliveryGroups.length(); size++)
+            mostLikelyDeliveryGroups.set(size, null);
+    }
+
+    /**
+     * Iterates through all bit masks with given number of bits set (Gosper's hack) and keeps the ones with the
+     * highest score. Score and mask are packed into one long key - the lower key, the higher score.
+     */
+    private int[] deliveryGroupsWithTheHighestScore(int size, long[] scores){
+        int n = deliveryTypes.size();
+        long maxScore = (1L << 33) - 1;
+        long[] keys = new long[MOST_LIKELY_DELIVERY_GROUPS];
+        int numberOfKeys = 0;
+
+        for(int deliveryGroup = (1 << size) - 1; deliveryGroup < 1 << n; ){
+            long score = 0;
+            for(int rest = deliveryGroup; rest != 0; rest &= rest - 1){
+                int i = Integer.numberOfTrailingZeros(rest);
+                for(int others = rest; others != 0; others &= others - 1)
+                    score += scores[i * n + Integer.numberOfTrailingZeros(others)];
+            }
+            long key = ((maxScore - Math.min(score, maxScore)) << 30) | deliveryGroup;
+
+            // insertion into short sorted array of keys
+            if(numberOfKeys < keys.length || key < keys[numberOfKeys - 1]){
+                int position = Math.min(numberOfKeys, keys.length - 1);
+                while(position > 0 && keys[position - 1] > key){
+                    keys[position] = keys[position - 1];
+                    position--;
+                }
+                keys[position] = key;
+                numberOfKeys = Math.min(numberOfKeys + 1, keys.length);
+            }
+
+            if(deliveryGroup == 0)
+                break;
+            int lowestBit = deliveryGroup & -deliveryGroup;
+            int ripple = deliveryGroup + lowestBit;
+            deliveryGroup = (((ripple ^ deliveryGroup) >>> 2) / lowestBit) | ripple;
+        }
+
+        int[] deliveryGroups = new int[numberOfKeys];
+        for(int index = 0; index < numberOfKeys; index++)
+            deliveryGroups[index] = (int) (keys[index] & ((1 << 30) - 1));
+        return deliveryGroups;
+    }
+}
@@ -0,0 +1,295 @@
+package com.ocado.basket;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.type.WritableTypeId;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * Compact result of splitting a basket.
+ * Assignment is stored in arrays of runs - run is a product with number of its copies in basket,
+ * run is mapped to delivery type id, and delivery type id is mapped to delivery type name. Memory
+ * used by result depends on number of distinct products, not on number of items in basket.
+ * The result is also an unmodifiable {@code Map<String, List<String>>} (delivery type - items), but
+ * lists are only lazy views expanding runs on access - no collections are built unless caller asks
+ * for them. The result can be written as json directly from arrays with {@link #writeTo(JsonGenerator)}
+ * or {@link #writeTo(OutputStream)}.
+ */
+public final class SplitResult extends AbstractMap<String, List<String>> implements JsonSerializable {
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .build();
+    private static final SplitResult EMPTY = new SplitResult(new String[0], new String[0], new int[0], new int[0], 0);
+
+    private final String[] deliveryTypes;
+    private final String[] products;
+    private final int[] counts;
+    private final int[] deliveryTypeIds;
+    private final int numberOfRuns;
+    // firstItemOfRun[r] is item index of the first copy of run r, firstItemOfRun[numberOfRuns] is number of items
+    private final long[] firstItemOfRun;
+    // runs grouped by delivery type: runs of type t are runsByDeliveryType[firstRunOfDeliveryType[t] .. firstRunOfDeliveryType[t + 1])
+    private final int[] runsByDeliveryType;
+    private final int[] firstRunOfDeliveryType;
+
+    private Set<Entry<String, List<String>>> entrySet;
+
+    /**
+     * Creates result from arrays, which are not copied - caller must not modify them afterwards.
+     * Item indexes follow order of runs - run r covers items from firstItemOfRun(r) to firstItemOfRun(r) + counts[r] - 1.
+     * @param deliveryTypes delivery type names indexed by delivery type id.
+     * @param products product of every run (only first {@code numberOfRuns} are used).
+     * @param counts number of copies of product in every run (only first {@code numberOfRuns} are used).
+     * @param deliveryTypeIds delivery type id of every run (only first {@code numberOfRuns} are used).
+     * @param numberOfRuns number of runs in result.
+     */
+    SplitResult(String[] deliveryTypes, String[] products, int[] counts, int[] deliveryTypeIds, int numberOfRuns) {
+        this.deliveryTypes = deliveryTypes;
+        this.products = products;
+        this.counts = counts;
+        this.deliveryTypeIds = deliveryTypeIds;
+        this.numberOfRuns = numberOfRuns;
+
+        firstItemOfRun = new long[numberOfRuns + 1];
+        for(int run = 0; run < numberOfRuns; run++)
+            firstItemOfRun[run + 1] = firstItemOfRun[run] + counts[run];
+        if(firstItemOfRun[numberOfRuns] > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many items in result: " + firstItemOfRun[numberOfRuns]);
+
+        // counting sort of runs by delivery type, preserving order of runs within delivery type
+        firstRunOfDeliveryType = new int[deliveryTypes.length + 1];
+        for(int run = 0; run < numberOfRuns; run++)
+            firstRunOfDeliveryType[deliveryTypeIds[run] + 1]++;
+        for(int deliveryType = 0; deliveryType < deliveryTypes.length; deliveryType++)
+            firstRunOfDeliveryType[deliveryType + 1] += firstRunOfDeliveryType[deliveryType];
+
+        runsByDeliveryType = new int[numberOfRuns];
+        int[] next = Arrays.copyOf(firstRunOfDeliveryType, deliveryTypes.length);
+        for(int run = 0; run < numberOfRuns; run++)
+            runsByDeliveryType[next[deliveryTypeIds[run]]++] = run;
+    }
+
+    public static SplitResult empty(){
+        return EMPTY;
+    }
+
+    public int deliveryTypeCount(){
+        return deliveryTypes.length;
+    }
+
+    public String deliveryType(int deliveryTypeId){
+        return deliveryTypes[Objects.checkIndex(deliveryTypeId, deliveryTypes.length)];
+    }
+
+    public int itemCount(){
+        return (int) firstItemOfRun[numberOfRuns];
+    }
+
+    public String item(int itemIndex){
+        return products[runOf(itemIndex)];
+    }
+
+    public int deliveryTypeId(int itemIndex){
+        return deliveryTypeIds[runOf(itemIndex)];
+    }
+
+    /**
+     * @return number of runs - distinct products assigned to delivery types.
+     */
+    public int runCount(){
+        return numberOfRuns;
+    }
+
+    public String productOfRun(int run){
+        return products[Objects.checkIndex(run, numberOfRuns)];
+    }
+
+    public int countOfRun(int run){
+        return counts[Objects.checkIndex(run, numberOfRuns)];
+    }
+
+    public int deliveryTypeIdOfRun(int run){
+        return deliveryTypeIds[Objects.checkIndex(run, numberOfRuns)];
+    }
+
+    /**
+     * @param deliveryTypeId id of delivery type.
+     * @return lazy, unmodifiable view of items assigned to delivery type.
+     */
+    public List<String> itemsOf(int deliveryTypeId){
+        Objects.checkIndex(deliveryTypeId, deliveryTypes.length);
+        int fromRun = firstRunOfDeliveryType[deliveryTypeId];
+        int toRun = firstRunOfDeliveryType[deliveryTypeId + 1];
+        // firstItems[i] is index in view of the first copy of run runsByDeliveryType[fromRun + i]
+        int[] firstItems = new int[toRun - fromRun + 1];
+        for(int i = fromRun; i < toRun; i++)
+            firstItems[i - fromRun + 1] = firstItems[i - fromRun] + counts[runsByDeliveryType[i]];
+        int size = firstItems[firstItems.length - 1];
+
+        return new AbstractList<>() {
+            @Override
+            public String get(int index) {
+                int position = Arrays.binarySearch(firstItems, Objects.checkIndex(index, size));
+                // index inside run is not found exactly, binary search returns insertion point
+                int run = position >= 0 ? position : -position - 2;
+                // skip empty runs
+                while(firstItems[run + 1] == firstItems[run])
+                    run++;
+                return products[runsByDeliveryType[fromRun + run]];
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            // expands runs sequentially, without binary search for every item
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<>() {
+                    private int run = fromRun;
+                    private int copiesLeft = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        while(copiesLeft == 0 && run < toRun)
+                            copiesLeft = counts[runsByDeliveryType[run++]];
+                        return copiesLeft > 0;
+                    }
+
+                    @Override
+                    public String next() {
+                        if(!hasNext())
+                            throw new NoSuchElementException();
+                        copiesLeft--;
+                        return products[runsByDeliveryType[run - 1]];
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public List<String> get(Object deliveryType) {
+        int deliveryTypeId = indexOf(deliveryType);
+        return deliveryTypeId < 0 ? null : itemsOf(deliveryTypeId);
+    }
+
+    @Override
+    public boolean containsKey(Object deliveryType) {
+        return indexOf(deliveryType) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return deliveryTypes.length;
+    }
+
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+        if(entrySet == null){
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, List<String>>> iterator() {
+                    return new Iterator<>() {
+                        private int deliveryTypeId = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return deliveryTypeId < deliveryTypes.length;
+                        }
+
+                        @Override
+                        public Entry<String, List<String>> next() {
+                            if(!hasNext())
+                                throw new NoSuchElementException();
+                            int current = deliveryTypeId++;
+                            return new SimpleImmutableEntry<>(deliveryTypes[current], itemsOf(current));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return deliveryTypes.length;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Writes result as json object (delivery type - array of items) straight from arrays.
+     * @param generator generator to write to.
+     * @throws IOException if writing failed.
+     */
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        writeFields(generator);
+        generator.writeEndObject();
+    }
+
+    private void writeFields(JsonGenerator generator) throws IOException {
+        for(int deliveryTypeId = 0; deliveryTypeId < deliveryTypes.length; deliveryTypeId++){
+            generator.writeFieldName(deliveryTypes[deliveryTypeId]);
+            generator.writeStartArray();
+            for(int i = firstRunOfDeliveryType[deliveryTypeId]; i < firstRunOfDeliveryType[deliveryTypeId + 1]; i++){
+                int run = runsByDeliveryType[i];
+                for(int copy = 0; copy < counts[run]; copy++)
+                    generator.writeString(products[run]);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Writes result as UTF-8 json to output stream. The stream is flushed, but not closed.
+     * @param output stream to write to.
+     * @throws IOException if writing failed.
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        try(JsonGenerator generator = JSON_FACTORY.createGenerator(output, JsonEncoding.UTF8)){
+            writeTo(generator);
+        }
+    }
+
+    @Override
+    public void serialize(JsonGenerator generator, SerializerProvider serializers) throws IOException {
+        writeTo(generator);
+    }
+
+    // with polymorphic typing (e.g. default typing of ObjectMapper) type id is written together with start of json object
+    @Override
+    public void serializeWithType(JsonGenerator generator, SerializerProvider serializers, TypeSerializer typeSerializer) throws IOException {
+        WritableTypeId typeId = typeSerializer.writeTypePrefix(generator, typeSerializer.typeId(this, JsonToken.START_OBJECT));
+        writeFields(generator);
+        typeSerializer.writeTypeSuffix(generator, typeId);
+    }
+
+    private int indexOf(Object deliveryType){
+        for(int deliveryTypeId = 0; deliveryTypeId < deliveryTypes.length; deliveryTypeId++){
+            if(deliveryTypes[deliveryTypeId].equals(deliveryType))
+                return deliveryTypeId;
+        }
+        return -1;
+    }
+
+    private int runOf(int itemIndex){
+        Objects.checkIndex(itemIndex, itemCount());
+        int position = Arrays.binarySearch(firstItemOfRun, 0, numberOfRuns + 1, itemIndex);
+        int run = position >= 0 ? position : -position - 2;
+        // skip empty runs
+        while(firstItemOfRun[run + 1] == firstItemOfRun[run])
+            run++;
+        return run;
+    }
+}
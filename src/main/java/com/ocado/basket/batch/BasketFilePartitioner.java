@@ -0,0 +1,78 @@
+package com.ocado.basket.batch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits batch input file (one basket per line) into byte ranges, which never cut a record in half.
+ */
+public final class BasketFilePartitioner {
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    private BasketFilePartitioner() {
+    }
+
+    /**
+     * Splits file into given number of record-aligned partitions.
+     * Steps:
+     *  1) Divides file into ranges of equal size.
+     *  2) Moves every range boundary forward, right after the nearest new line character.
+     *  The result depends only on file content and number of partitions, so every worker
+     *  (thread or process) computes exactly the same partitions.
+     * @param path path to batch input file.
+     * @param numberOfPartitions requested number of partitions.
+     * @return a list of partitions - some of them may be empty when file has fewer lines than partitions.
+     * @throws IOException if file could not be read.
+     */
+    public static List<Partition> partition(Path path, int numberOfPartitions) throws IOException {
+        if(numberOfPartitions < 1)
+            throw new IllegalArgumentException("Number of partitions must be positive, found: " + numberOfPartitions);
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            long size = channel.size();
+            List<Partition> partitions = new ArrayList<>(numberOfPartitions);
+            long start = 0;
+
+            for(int i = 0; i < numberOfPartitions; i++){
+                long end = i == numberOfPartitions - 1 ? size : Math.max(start, alignToRecord(channel, size * (i + 1) / numberOfPartitions, size));
+                partitions.add(new Partition(i, start, end));
+                start = end;
+            }
+            return partitions;
+        }
+    }
+
+    /**
+     * Finds the first record boundary at or after given position.
+     * @param channel opened input file.
+     * @param position nominal position of partition boundary.
+     * @param size size of the file.
+     * @return offset right after the new line character preceding the next record or size of the file.
+     */
+    private static long alignToRecord(FileChannel channel, long position, long size) throws IOException {
+        if(position == 0 || position >= size)
+            return Math.min(position, size);
+
+        // boundary lying right after new line is already aligned
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long current = position - 1;
+
+        while(current < size){
+            buffer.clear();
+            int read = channel.read(buffer, current);
+            if(read <= 0)
+                break;
+            for(int i = 0; i < read; i++){
+                if(buffer.get(i) == '\n')
+                    return current + i + 1;
+            }
+            current += read;
+        }
+        return size;
+    }
+}
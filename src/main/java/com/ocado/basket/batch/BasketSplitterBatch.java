@@ -0,0 +1,170 @@
+package com.ocado.basket.batch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ocado.basket.BasketSplitter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Resumable batch mode of basket splitter.
+ * Input file contains one basket (json array with items) per line. The file is divided into
+ * record-aligned partitions, which are processed in parallel - either by worker threads or by
+ * separate local worker processes. Every partition has its own output file (one json assignment
+ * per line, in the same order as input) and checkpoint file. Running the same command again after
+ * a failure resumes every partition from its last checkpoint.
+ * <p>
+ * Usage:
+ * <pre>
+ * BasketSplitterBatch --config config.json --input baskets.jsonl --output out-dir
+ *     [--partitions N] [--threads N] [--checkpoint-interval N] [--processes] [--partition I]
+ * </pre>
+ * <ul>
+ *  <li>{@code --partitions} - number of partitions, by default number of available processors.</li>
+ *  <li>{@code --threads} - number of worker threads, by default number of partitions.</li>
+ *  <li>{@code --checkpoint-interval} - number of baskets between checkpoints, by default 10000.</li>
+ *  <li>{@code --processes} - runs every partition in separate local process instead of thread.</li>
+ *  <li>{@code --partition} - processes only partition with given index (used by worker processes).</li>
+ * </ul>
+ */
+public class BasketSplitterBatch {
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 10_000;
+
+    private final Path config;
+    private final Path input;
+    private final Path outputDirectory;
+    private final int numberOfPartitions;
+    private final int checkpointInterval;
+
+    public BasketSplitterBatch(Path config, Path input, Path outputDirectory, int numberOfPartitions, int checkpointInterval) {
+        this.config = config;
+        this.input = input;
+        this.outputDirectory = outputDirectory;
+        this.numberOfPartitions = numberOfPartitions;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Processes all partitions using worker threads sharing one splitter.
+     * @param numberOfThreads number of worker threads.
+     * @return checkpoints of all completed partitions.
+     * @throws Exception first failure of any worker - other partitions keep their checkpoints.
+     */
+    public List<PartitionCheckpoint> runInThreads(int numberOfThreads) throws Exception {
+        List<Partition> partitions = BasketFilePartitioner.partition(input, numberOfPartitions);
+        Files.createDirectories(outputDirectory);
+
+        BasketSplitter basketSplitter = new BasketSplitter(config.toString());
+        ObjectMapper mapper = new ObjectMapper();
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+
+        try{
+            List<Future<PartitionCheckpoint>> futures = new ArrayList<>();
+            for(Partition partition : partitions)
+                futures.add(executor.submit(new PartitionWorker(basketSplitter, mapper, input, partition, outputDirectory, checkpointInterval)));
+
+            List<PartitionCheckpoint> checkpoints = new ArrayList<>();
+            for(Future<PartitionCheckpoint> future : futures)
+                checkpoints.add(future.get());
+            return checkpoints;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Processes single partition in current thread.
+     * @param index index of partition.
+     * @return checkpoint of completed partition.
+     */
+    public PartitionCheckpoint runPartition(int index) throws Exception {
+        List<Partition> partitions = BasketFilePartitioner.partition(input, numberOfPartitions);
+        if(index < 0 || index >= partitions.size())
+            throw new IllegalArgumentException("Partition index out of range: " + index);
+        Files.createDirectories(outputDirectory);
+
+        BasketSplitter basketSplitter = new BasketSplitter(config.toString());
+        return new PartitionWorker(basketSplitter, new ObjectMapper(), input, partitions.get(index), outputDirectory, checkpointInterval).call();
+    }
+
+    /**
+     * Processes every partition in separate local JVM started with the same class path.
+     * @throws IOException if any of worker processes failed.
+     */
+    public void runInProcesses() throws IOException, InterruptedException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        List<Process> processes = new ArrayList<>();
+
+        for(int index = 0; index < numberOfPartitions; index++){
+            List<String> command = List.of(
+                    java, "-cp", System.getProperty("java.class.path"), BasketSplitterBatch.class.getName(),
+                    "--config", config.toString(),
+                    "--input", input.toString(),
+                    "--output", outputDirectory.toString(),
+                    "--partitions", String.valueOf(numberOfPartitions),
+                    "--checkpoint-interval", String.valueOf(checkpointInterval),
+                    "--partition", String.valueOf(index));
+            processes.add(new ProcessBuilder(command).inheritIO().start());
+        }
+
+        List<Integer> failedPartitions = new ArrayList<>();
+        for(int index = 0; index < processes.size(); index++){
+            if(processes.get(index).waitFor() != 0)
+                failedPartitions.add(index);
+        }
+        if(!failedPartitions.isEmpty())
+            throw new IOException("Worker processes failed for partitions: " + failedPartitions);
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = parseOptions(args);
+        int processors = Runtime.getRuntime().availableProcessors();
+        int numberOfPartitions = Integer.parseInt(options.getOrDefault("--partitions", String.valueOf(processors)));
+
+        BasketSplitterBatch batch = new BasketSplitterBatch(
+                Path.of(requiredOption(options, "--config")),
+                Path.of(requiredOption(options, "--input")),
+                Path.of(requiredOption(options, "--output")),
+                numberOfPartitions,
+                Integer.parseInt(options.getOrDefault("--checkpoint-interval", String.valueOf(DEFAULT_CHECKPOINT_INTERVAL))));
+
+        try{
+            if(options.containsKey("--partition"))
+                batch.runPartition(Integer.parseInt(options.get("--partition")));
+            else if(options.containsKey("--processes"))
+                batch.runInProcesses();
+            else
+                batch.runInThreads(Integer.parseInt(options.getOrDefault("--threads", String.valueOf(numberOfPartitions))));
+        }
+        catch (Exception exception){
+            exception.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args){
+        Map<String, String> options = new HashMap<>();
+        for(int i = 0; i < args.length; i++){
+            if(args[i].equals("--processes"))
+                options.put(args[i], "true");
+            else if(i + 1 < args.length)
+                options.put(args[i], args[++i]);
+            else
+                throw new IllegalArgumentException("Missing value for option " + args[i]);
+        }
+        return options;
+    }
+
+    private static String requiredOption(Map<String, String> options, String name){
+        String value = options.get(name);
+        if(value == null)
+            throw new IllegalArgumentException("Missing required option " + name);
+        return value;
+    }
+}
@@ -0,0 +1,18 @@
+package com.ocado.basket.batch;
+
+/**
+ * Record-aligned byte range of a batch input file.
+ * @param index number of the partition, starting from 0.
+ * @param start offset of the first byte of the first record in the partition (inclusive).
+ * @param end offset right after the last record in the partition (exclusive).
+ */
+public record Partition(int index, long start, long end) {
+
+    public long length(){
+        return end - start;
+    }
+
+    public boolean isEmpty(){
+        return start >= end;
+    }
+}
@@ -0,0 +1,111 @@
+package com.ocado.basket.batch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Progress of a single partition, which is durable on disk.
+ * @param partition partition which progress is stored.
+ * @param offset offset in input file of the first record which was not processed yet.
+ * @param outputLength length of partition output file containing all processed records.
+ * @param processedRecords number of baskets processed so far.
+ */
+public record PartitionCheckpoint(Partition partition, long offset, long outputLength, long processedRecords) {
+
+    public static PartitionCheckpoint initial(Partition partition){
+        return new PartitionCheckpoint(partition, partition.start(), 0, 0);
+    }
+
+    public boolean isCompleted(){
+        return offset >= partition.end();
+    }
+
+    /**
+     * Reads checkpoint from file.
+     * @param path path to checkpoint file.
+     * @param partition partition which is expected to be stored in checkpoint.
+     * @return stored checkpoint or empty optional if checkpoint file does not exist.
+     * @throws IOException if checkpoint could not be read or any of its properties is missing or invalid.
+     * @throws IllegalStateException if checkpoint was written for different partition layout.
+     */
+    public static Optional<PartitionCheckpoint> read(Path path, Partition partition) throws IOException {
+        if(!Files.exists(path))
+            return Optional.empty();
+
+        Properties properties = new Properties();
+        try(InputStream input = Files.newInputStream(path)){
+            properties.load(input);
+        }
+
+        Partition storedPartition = new Partition(
+                (int) property(properties, "partition", path),
+                property(properties, "start", path),
+                property(properties, "end", path));
+
+        if(!storedPartition.equals(partition))
+            throw new IllegalStateException("Checkpoint " + path + " was written for " + storedPartition + ", expected " + partition);
+
+        return Optional.of(new PartitionCheckpoint(
+                partition,
+                property(properties, "offset", path),
+                property(properties, "outputLength", path),
+                property(properties, "processedRecords", path)));
+    }
+
+    private static long property(Properties properties, String name, Path path) throws IOException {
+        String value = properties.getProperty(name);
+        try{
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException exception){
+            throw new IOException("Checkpoint " + path + " has missing or invalid property " + name + ": " + value, exception);
+        }
+    }
+
+    /**
+     * Writes checkpoint next to its final location, syncs it to disk and atomically replaces previous one,
+     * then syncs directory with the new name - so neither crash during writing nor power loss after it
+     * leaves empty or corrupted checkpoint.
+     * @param path path to checkpoint file.
+     * @throws IOException if checkpoint could not be written.
+     */
+    public void write(Path path) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("partition", String.valueOf(partition.index()));
+        properties.setProperty("start", String.valueOf(partition.start()));
+        properties.setProperty("end", String.valueOf(partition.end()));
+        properties.setProperty("offset", String.valueOf(offset));
+        properties.setProperty("outputLength", String.valueOf(outputLength));
+        properties.setProperty("processedRecords", String.valueOf(processedRecords));
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            properties.store(Channels.newOutputStream(channel), null);
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(path.toAbsolutePath().getParent());
+    }
+
+    // rename is durable only after directory entry is synced - directories can not be opened on every platform (e.g. Windows)
+    private static void syncDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try{
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        }
+        catch (IOException | UnsupportedOperationException exception){
+            return;
+        }
+        try(channel){
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.ocado.basket.batch;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.ocado.basket.BasketSplitter;
+import com.ocado.basket.error.InvalidConfigurationException;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Splits all baskets from one partition of batch input file and writes results to partition output file.
+ * Every {@code checkpointInterval} baskets output is synced to disk and checkpoint is stored, so
+ * interrupted worker started once again continues from the last checkpoint.
+ * A record which can not be split (e.g. malformed json or product missing in configuration) does not
+ * stop the partition - its line of output is an error object instead of assignment:
+ * <pre>
+ * {"error": {"offset": 1234, "message": "..."}}
+ * </pre>
+ * Worker is not thread-safe - every partition needs its own worker.
+ */
+public final class PartitionWorker implements Callable<PartitionCheckpoint> {
+    private static final long MAX_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final BasketSplitter basketSplitter;
+    private final ObjectMapper mapper;
+    private final JavaType basketType;
+    private final Path input;
+    private final Partition partition;
+    private final Path outputFile;
+    private final Path checkpointFile;
+    private final int checkpointInterval;
+    // serialized result of the current record, reused to avoid allocating buffer for every basket
+    private final ByteArrayOutputStream result = new ByteArrayOutputStream(1024);
+
+    public PartitionWorker(BasketSplitter basketSplitter, ObjectMapper mapper, Path input, Partition partition, Path outputDirectory, int checkpointInterval) {
+        if(checkpointInterval < 1)
+            throw new IllegalArgumentException("Checkpoint interval must be positive, found: " + checkpointInterval);
+
+        this.basketSplitter = basketSplitter;
+        this.mapper = mapper;
+        this.basketType = mapper.getTypeFactory().constructCollectionType(List.class, String.class);
+        this.input = input;
+        this.partition = partition;
+        this.outputFile = outputFile(outputDirectory, partition);
+        this.checkpointFile = checkpointFile(outputDirectory, partition);
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public static Path outputFile(Path outputDirectory, Partition partition){
+        return outputDirectory.resolve(String.format("partition-%05d.jsonl", partition.index()));
+    }
+
+    public static Path checkpointFile(Path outputDirectory, Partition partition){
+        return outputDirectory.resolve(String.format("partition-%05d.checkpoint", partition.index()));
+    }
+
+    /**
+     * Processes partition starting from the last checkpoint.
+     * Steps:
+     *  1) Reads checkpoint - if there is none, partition is processed from the beginning.
+     *  2) Truncates output file to length stored in checkpoint, which discards results written after checkpoint.
+     *  3) Memory-maps input file in windows and splits basket from every line - blank lines are skipped.
+     *  4) Stores checkpoint every {@code checkpointInterval} baskets and after the last one.
+     * @return checkpoint of completed partition.
+     * @throws IOException if input, output or checkpoint file could not be accessed.
+     * @throws InvalidConfigurationException if splitter configuration is invalid.
+     */
+    @Override
+    public PartitionCheckpoint call() throws IOException, InvalidConfigurationException {
+        PartitionCheckpoint checkpoint = PartitionCheckpoint.read(checkpointFile, partition).orElse(PartitionCheckpoint.initial(partition));
+        if(checkpoint.isCompleted())
+            return checkpoint;
+
+        try(FileChannel inputChannel = FileChannel.open(input, StandardOpenOption.READ);
+            FileChannel outputChannel = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)){
+
+            outputChannel.truncate(checkpoint.outputLength());
+            outputChannel.position(checkpoint.outputLength());
+            OutputStream output = new BufferedOutputStream(Channels.newOutputStream(outputChannel), 64 * 1024);
+
+            long position = checkpoint.offset();
+            long outputLength = checkpoint.outputLength();
+            long processedRecords = checkpoint.processedRecords();
+            int recordsSinceCheckpoint = 0;
+            byte[] line = new byte[1024];
+
+            while(position < partition.end()){
+                long windowSize = Math.min(MAX_WINDOW_SIZE, partition.end() - position);
+                boolean lastWindow = position + windowSize == partition.end();
+                MappedByteBuffer window = inputChannel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+
+                int lineStart = 0;
+                for(int i = 0; i <= windowSize; i++){
+                    // the last record of the file does not have to end with new line character
+                    boolean endOfRecord = i == windowSize ? lastWindow && i > lineStart : window.get(i) == '\n';
+                    if(endOfRecord){
+                        int length = i - lineStart;
+                        if(line.length < length)
+                            line = new byte[Math.max(length, line.length * 2)];
+                        window.get(lineStart, line, 0, length);
+
+                        int written = processRecord(line, length, position + lineStart, output);
+                        lineStart = Math.min(i + 1, (int) windowSize);
+                        if(written == 0)
+                            continue;
+                        outputLength += written;
+                        processedRecords++;
+
+                        if(++recordsSinceCheckpoint == checkpointInterval){
+                            checkpoint = storeCheckpoint(output, outputChannel, position + lineStart, outputLength, processedRecords);
+                            recordsSinceCheckpoint = 0;
+                        }
+                    }
+                }
+
+                if(lastWindow)
+                    position = partition.end();
+                else if(lineStart == 0)
+                    throw new IOException("Record starting at offset " + position + " is longer than " + MAX_WINDOW_SIZE + " bytes");
+                else
+                    position += lineStart;
+            }
+
+            if(!checkpoint.isCompleted())
+                checkpoint = storeCheckpoint(output, outputChannel, partition.end(), outputLength, processedRecords);
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Splits a single basket and writes result as one line of output. If the basket could not be parsed
+     * or split, error with offset of the record is written instead.
+     * @param offset offset of the record in input file.
+     * @return number of bytes written to output or 0 if line was blank.
+     */
+    private int processRecord(byte[] line, int length, long offset, OutputStream output) throws IOException, InvalidConfigurationException {
+        if(isBlank(line, length))
+            return 0;
+
+        result.reset();
+        try{
+            List<String> items = mapper.readValue(line, 0, length, basketType);
+            basketSplitter.splitToResult(items).writeTo(result);
+        }
+        // only errors of this record - configuration errors (e.g. too many delivery types) stop the worker
+        catch (JsonProcessingException | IllegalArgumentException exception){
+            result.reset();
+            writeError(offset, exception);
+        }
+        result.write('\n');
+        result.writeTo(output);
+        return result.size();
+    }
+
+    private void writeError(long offset, Exception exception) throws IOException {
+        ObjectNode error = mapper.createObjectNode();
+        error.putObject("error")
+                .put("offset", offset)
+                .put("message", exception.getMessage());
+        mapper.writeValue(result, error);
+    }
+
+    private PartitionCheckpoint storeCheckpoint(OutputStream output, FileChannel outputChannel, long offset, long outputLength, long processedRecords) throws IOException {
+        output.flush();
+        outputChannel.force(false);
+
+        PartitionCheckpoint checkpoint = new PartitionCheckpoint(partition, offset, outputLength, processedRecords);
+        checkpoint.write(checkpointFile);
+        return checkpoint;
+    }
+
+    private static boolean isBlank(byte[] line, int length){
+        for(int i = 0; i < length; i++){
+            if(!Character.isWhitespace(line[i]))
+                return false;
+        }
+        return true;
+    }
+}
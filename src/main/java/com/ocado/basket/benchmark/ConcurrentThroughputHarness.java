@@ -0,0 +1,252 @@
+package com.ocado.basket.benchmark;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ocado.basket.BasketSplitter;
+import com.ocado.basket.error.InvalidConfigurationException;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures how throughput of one shared {@link BasketSplitter} scales with number of threads.
+ * For every number of threads from 1 to N all threads call {@code split} on the same instance
+ * for a fixed time, while JFR records contended monitor enters and thread parks - both of them
+ * should stay close to zero for a contention-free splitter.
+ * <p>
+ * Every number of threads is warmed up before it is measured (warmup runs are discarded), and
+ * measured several times - the run with median throughput is reported, so the single thread
+ * baseline is not skewed by JIT compilation or by one noisy run. Speedup can not exceed number of
+ * available processors, which is printed together with results.
+ * <p>
+ * Usage:
+ * <pre>
+ * ConcurrentThroughputHarness --config config.json [--baskets baskets.jsonl]
+ *     [--max-threads N] [--duration-seconds S] [--warmup-seconds S] [--repetitions R]
+ * </pre>
+ * Without {@code --baskets} random baskets built from products in configuration are used.
+ */
+public class ConcurrentThroughputHarness {
+    private static final int GENERATED_BASKETS = 1_000;
+    private static final int MAX_GENERATED_BASKET_SIZE = 10;
+
+    private final BasketSplitter basketSplitter;
+    private final List<List<String>> baskets;
+
+    public ConcurrentThroughputHarness(BasketSplitter basketSplitter, List<List<String>> baskets) {
+        if(baskets.isEmpty())
+            throw new IllegalArgumentException("At least one basket is required");
+        this.basketSplitter = basketSplitter;
+        this.baskets = baskets;
+    }
+
+    /**
+     * Result of a single measurement.
+     * @param threads number of threads calling {@code split} concurrently.
+     * @param operations number of baskets split by all threads.
+     * @param elapsed duration of measurement.
+     * @param contendedMonitorEnters number of JFR {@code jdk.JavaMonitorEnter} events.
+     * @param monitorBlockedTime summed duration of contended monitor enters.
+     * @param threadParks number of JFR {@code jdk.ThreadPark} events (contended {@code java.util.concurrent} locks).
+     */
+    public record Measurement(int threads, long operations, Duration elapsed, long contendedMonitorEnters, Duration monitorBlockedTime, long threadParks) {
+
+        public double throughput(){
+            return operations / (elapsed.toNanos() / 1e9);
+        }
+    }
+
+    /**
+     * Runs given number of threads against shared splitter.
+     * Steps:
+     *  1) Starts JFR recording of contended monitor enters and thread parks.
+     *  2) Starts threads, which split baskets in a loop until time is up - every thread counts
+     *  its own operations, so the measurement itself does not share any state.
+     *  3) Stops recording and summarizes recorded events.
+     * @param threads number of threads.
+     * @param duration time of measurement.
+     * @return measurement summary.
+     */
+    public Measurement measure(int threads, Duration duration) throws Exception {
+        try(Recording recording = new Recording()){
+            recording.enable("jdk.JavaMonitorEnter").withThreshold(Duration.ZERO).withStackTrace();
+            recording.enable("jdk.ThreadPark").withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch start = new CountDownLatch(1);
+            long[] deadline = new long[1];
+            List<Future<Long>> futures = new ArrayList<>();
+
+            try{
+                for(int thread = 0; thread < threads; thread++){
+                    int firstBasket = thread * baskets.size() / threads;
+                    futures.add(executor.submit(() -> splitUntilDeadline(start, deadline, firstBasket)));
+                }
+
+                long startTime = System.nanoTime();
+                deadline[0] = startTime + duration.toNanos();
+                start.countDown();
+
+                long operations = 0;
+                for(Future<Long> future : futures)
+                    operations += future.get();
+                Duration elapsed = Duration.ofNanos(System.nanoTime() - startTime);
+
+                recording.stop();
+                return summarize(recording, threads, operations, elapsed);
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Warms up given number of threads, then measures them repeatedly.
+     * @param threads number of threads.
+     * @param warmup time of warmup run, which is discarded.
+     * @param duration time of every measurement.
+     * @param repetitions number of measurements.
+     * @return measurement with median throughput.
+     */
+    public Measurement measureMedian(int threads, Duration warmup, Duration duration, int repetitions) throws Exception {
+        if(!warmup.isZero())
+            measure(threads, warmup);
+
+        List<Measurement> measurements = new ArrayList<>(repetitions);
+        for(int repetition = 0; repetition < repetitions; repetition++)
+            measurements.add(measure(threads, duration));
+        measurements.sort(Comparator.comparingDouble(Measurement::throughput));
+        return measurements.get(repetitions / 2);
+    }
+
+    private long splitUntilDeadline(CountDownLatch start, long[] deadline, int firstBasket) throws InterruptedException, InvalidConfigurationException {
+        start.await();
+        long end = deadline[0];
+        long operations = 0;
+        int basket = firstBasket;
+
+        while(System.nanoTime() < end){
+            basketSplitter.split(baskets.get(basket));
+            operations++;
+            if(++basket == baskets.size())
+                basket = 0;
+        }
+        return operations;
+    }
+
+    private static Measurement summarize(Recording recording, int threads, long operations, Duration elapsed) throws IOException {
+        Path dump = Files.createTempFile("basket-splitter-harness", ".jfr");
+        try{
+            recording.dump(dump);
+            long monitorEnters = 0;
+            long threadParks = 0;
+            Duration blockedTime = Duration.ZERO;
+
+            for(RecordedEvent event : RecordingFile.readAllEvents(dump)){
+                if(!isSplitterThread(event))
+                    continue;
+                switch (event.getEventType().getName()){
+                    case "jdk.JavaMonitorEnter" -> {
+                        monitorEnters++;
+                        blockedTime = blockedTime.plus(event.getDuration());
+                    }
+                    case "jdk.ThreadPark" -> threadParks++;
+                    default -> {}
+                }
+            }
+            return new Measurement(threads, operations, elapsed, monitorEnters, blockedTime, threadParks);
+        }
+        finally {
+            Files.deleteIfExists(dump);
+        }
+    }
+
+    // only events coming from split calls matter - e.g. parking on start latch or in executor queue is not contention
+    private static boolean isSplitterThread(RecordedEvent event){
+        return event.getStackTrace() != null && event.getStackTrace().getFrames()
+                .stream()
+                .anyMatch(frame -> frame.getMethod().getType().getName().equals(BasketSplitter.class.getName()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for(int i = 0; i + 1 < args.length; i += 2)
+            options.put(args[i], args[i + 1]);
+
+        String config = options.get("--config");
+        if(config == null)
+            throw new IllegalArgumentException("Missing required option --config");
+
+        int maxThreads = Integer.parseInt(options.getOrDefault("--max-threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("--duration-seconds", "5")));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("--warmup-seconds", "3")));
+        int repetitions = Integer.parseInt(options.getOrDefault("--repetitions", "3"));
+        if(maxThreads < 1 || repetitions < 1)
+            throw new IllegalArgumentException("Number of threads and repetitions must be positive");
+
+        List<List<String>> baskets = options.containsKey("--baskets")
+                ? readBaskets(Path.of(options.get("--baskets")))
+                : generateBaskets(config);
+
+        ConcurrentThroughputHarness harness = new ConcurrentThroughputHarness(new BasketSplitter(config), baskets);
+        int availableProcessors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("available processors: %d, repetitions: %d%n", availableProcessors, repetitions);
+        if(maxThreads > availableProcessors)
+            System.out.printf("warning: more threads than available processors, speedup is limited to %d%n", availableProcessors);
+
+        System.out.printf("%8s %14s %9s %11s %16s %17s %13s%n", "threads", "ops/s", "speedup", "efficiency", "monitor enters", "monitor blocked", "thread parks");
+        double singleThreadThroughput = 0;
+        for(int threads = 1; threads <= maxThreads; threads++){
+            Measurement measurement = harness.measureMedian(threads, warmup, duration, repetitions);
+            if(threads == 1)
+                singleThreadThroughput = measurement.throughput();
+            double speedup = measurement.throughput() / singleThreadThroughput;
+
+            System.out.printf("%8d %14.0f %9.2f %10.0f%% %16d %15dms %13d%n",
+                    threads, measurement.throughput(), speedup, 100 * speedup / threads,
+                    measurement.contendedMonitorEnters(), measurement.monitorBlockedTime().toMillis(), measurement.threadParks());
+        }
+    }
+
+    /**
+     * Reads baskets from file containing one basket (json array) per line.
+     */
+    public static List<List<String>> readBaskets(Path path) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        JavaType type = mapper.getTypeFactory().constructCollectionType(List.class, String.class);
+        List<List<String>> baskets = new ArrayList<>();
+
+        for(String line : Files.readAllLines(path)){
+            if(!line.isBlank())
+                baskets.add(mapper.readValue(line, type));
+        }
+        return baskets;
+    }
+
+    private static List<List<String>> generateBaskets(String config) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        List<String> products = new ArrayList<>();
+        mapper.readTree(new File(config)).fieldNames().forEachRemaining(products::add);
+        Random random = new Random(42);
+        List<List<String>> baskets = new ArrayList<>(GENERATED_BASKETS);
+
+        for(int i = 0; i < GENERATED_BASKETS; i++){
+            int size = 1 + random.nextInt(MAX_GENERATED_BASKET_SIZE);
+            List<String> basket = new ArrayList<>(size);
+            for(int j = 0; j < size; j++)
+                basket.add(products.get(random.nextInt(products.size())));
+            baskets.add(basket);
+        }
+        return baskets;
+    }
+}
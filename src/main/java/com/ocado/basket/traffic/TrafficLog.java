@@ -0,0 +1,109 @@
+package com.ocado.basket.traffic;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary format of recorded split inputs.
+ * <pre>
+ * header: magic (int) | version (byte) | configuration fingerprint (long) | number of products (varint) | start time in epoch millis (long)
+ * record: nanos since previous record, 0 for the first one (varlong) | number of items (varint) | product ids (varint each)
+ * </pre>
+ * Product id is index of product in configuration file (see {@link com.ocado.basket.BasketSplitter#getProducts()}),
+ * so the log contains no product names and can be replayed only with the same configuration.
+ */
+public final class TrafficLog {
+    static final int MAGIC = 0x4253544C;
+    static final byte VERSION = 1;
+
+    private TrafficLog() {
+    }
+
+    /**
+     * Basket read from traffic log.
+     * @param offsetNanos time since the first recorded basket.
+     * @param items items in basket.
+     */
+    public record RecordedBasket(long offsetNanos, List<String> items) {
+    }
+
+    /**
+     * Fingerprint of products in configuration - replaying log with different configuration would map ids to wrong products.
+     */
+    public static long fingerprint(List<String> products){
+        long fingerprint = 1125899906842597L;
+        for(String product : products){
+            for(int i = 0; i < product.length(); i++)
+                fingerprint = 31 * fingerprint + product.charAt(i);
+            fingerprint = 31 * fingerprint + products.size();
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Reads all baskets from traffic log.
+     * @param path path to traffic log.
+     * @param products products from configuration used when log was recorded.
+     * @return recorded baskets in recorded order.
+     * @throws IOException if log could not be read, is corrupted or was recorded with different configuration.
+     */
+    public static List<RecordedBasket> read(Path path, List<String> products) throws IOException {
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024))){
+            if(input.readInt() != MAGIC)
+                throw new IOException("Not a traffic log: " + path);
+            byte version = input.readByte();
+            if(version != VERSION)
+                throw new IOException("Unsupported traffic log version: " + version);
+            if(input.readLong() != fingerprint(products) || readVarLong(input) != products.size())
+                throw new IOException("Traffic log " + path + " was recorded with different configuration");
+            input.readLong();
+
+            List<RecordedBasket> baskets = new ArrayList<>();
+            long offsetNanos = 0;
+            int first;
+            while((first = input.read()) != -1){
+                offsetNanos += readVarLong(input, first);
+                int numberOfItems = Math.toIntExact(readVarLong(input));
+                List<String> items = new ArrayList<>(numberOfItems);
+                for(int i = 0; i < numberOfItems; i++){
+                    int productId = Math.toIntExact(readVarLong(input));
+                    if(productId >= products.size())
+                        throw new IOException("Product id out of range: " + productId);
+                    items.add(products.get(productId));
+                }
+                baskets.add(new RecordedBasket(offsetNanos, items));
+            }
+            return baskets;
+        }
+        catch (EOFException exception){
+            throw new IOException("Truncated traffic log: " + path, exception);
+        }
+    }
+
+    static void writeVarLong(DataOutput output, long value) throws IOException {
+        while((value & ~0x7FL) != 0){
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput input) throws IOException {
+        return readVarLong(input, input.readUnsignedByte());
+    }
+
+    private static long readVarLong(DataInput input, int first) throws IOException {
+        long value = first & 0x7F;
+        int shift = 7;
+        for(int current = first; (current & 0x80) != 0; shift += 7){
+            if(shift > 63)
+                throw new IOException("Malformed varint in traffic log");
+            current = input.readUnsignedByte();
+            value |= (long) (current & 0x7F) << shift;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,195 @@
+package com.ocado.basket.traffic;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records split inputs to {@link TrafficLog}.
+ * Calling thread only maps items to product ids and puts the record to lock-free queue - encoding and
+ * writing is done by a background writer thread. When the queue is full (writer cannot keep up),
+ * records are dropped instead of blocking callers. Baskets with products missing in configuration
+ * are dropped as well, because they cannot be stored as product ids.
+ */
+public final class TrafficRecorder implements Closeable {
+    public static final int DEFAULT_CAPACITY = 65_536;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private record Entry(long timestampNanos, int[] productIds) {
+    }
+
+    private final Map<String, Integer> productIds;
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedEntries = new AtomicInteger();
+    private final int capacity;
+    private final LongAdder droppedRecords = new LongAdder();
+    private final LongAdder writtenRecords = new LongAdder();
+    private final DataOutputStream output;
+    private final Thread writer;
+    // close requested by user
+    private volatile boolean closed;
+    // writer thread does not take records anymore - after close or failure
+    private volatile boolean writerStopped;
+    private volatile IOException writeFailure;
+
+    private TrafficRecorder(DataOutputStream output, List<String> products, int capacity) {
+        Map<String, Integer> ids = new HashMap<>();
+        for(int i = 0; i < products.size(); i++)
+            ids.put(products.get(i), i);
+        this.productIds = ids;
+        this.output = output;
+        this.capacity = capacity;
+        this.writer = new Thread(this::writeEntries, "traffic-recorder");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Creates traffic log and starts writer thread.
+     * @param path path to traffic log - existing file is overwritten.
+     * @param products products from configuration, see {@link com.ocado.basket.BasketSplitter#getProducts()}.
+     * @return started recorder.
+     * @throws IOException if log could not be created.
+     */
+    public static TrafficRecorder open(Path path, List<String> products) throws IOException {
+        return open(path, products, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity maximal number of records waiting for writer thread.
+     */
+    public static TrafficRecorder open(Path path, List<String> products, int capacity) throws IOException {
+        return open(Files.newOutputStream(path), products, capacity);
+    }
+
+    /**
+     * Starts recording to output stream, which is closed when recorder is closed.
+     * @param stream stream to write traffic log to.
+     * @param products products from configuration, see {@link com.ocado.basket.BasketSplitter#getProducts()}.
+     * @param capacity maximal number of records waiting for writer thread.
+     * @return started recorder.
+     * @throws IOException if header of log could not be written.
+     */
+    public static TrafficRecorder open(OutputStream stream, List<String> products, int capacity) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+        output.writeInt(TrafficLog.MAGIC);
+        output.writeByte(TrafficLog.VERSION);
+        output.writeLong(TrafficLog.fingerprint(products));
+        TrafficLog.writeVarLong(output, products.size());
+        output.writeLong(System.currentTimeMillis());
+
+        TrafficRecorder recorder = new TrafficRecorder(output, products, capacity);
+        recorder.writer.start();
+        return recorder;
+    }
+
+    /**
+     * Records basket. Never blocks - record is dropped if recorder is closed, its writer failed
+     * or its queue is full.
+     * @param items items in basket.
+     */
+    public void record(List<String> items){
+        long timestampNanos = System.nanoTime();
+        if(closed || writerStopped || queuedEntries.get() >= capacity){
+            droppedRecords.increment();
+            return;
+        }
+
+        int[] ids = new int[items.size()];
+        for(int i = 0; i < ids.length; i++){
+            Integer id = productIds.get(items.get(i));
+            if(id == null){
+                droppedRecords.increment();
+                return;
+            }
+            ids[i] = id;
+        }
+
+        queuedEntries.incrementAndGet();
+        queue.offer(new Entry(timestampNanos, ids));
+        // writer may have stopped after the check above, then nobody else would take the record
+        if(writerStopped)
+            dropQueuedEntries();
+    }
+
+    public long droppedRecords(){
+        return droppedRecords.sum();
+    }
+
+    public long writtenRecords(){
+        return writtenRecords.sum();
+    }
+
+    /**
+     * Stops accepting records, writes all queued records and closes the log.
+     * Records which could not be written are counted in {@link #droppedRecords()}.
+     * @throws IOException if writing any record failed - thrown on every call of close.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try{
+            writer.join();
+        }
+        catch (InterruptedException exception){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing traffic recorder");
+        }
+        if(writeFailure != null)
+            throw writeFailure;
+    }
+
+    private void writeEntries(){
+        long previousTimestampNanos = Long.MIN_VALUE;
+        // records are counted as written only after they are flushed
+        int unflushedRecords = 0;
+        try(output){
+            while(true){
+                Entry entry = queue.poll();
+                if(entry == null){
+                    output.flush();
+                    writtenRecords.add(unflushedRecords);
+                    unflushedRecords = 0;
+                    if(closed && queue.isEmpty())
+                        break;
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    continue;
+                }
+                queuedEntries.decrementAndGet();
+                unflushedRecords++;
+
+                // records from different threads may be queued slightly out of order
+                long delta = previousTimestampNanos == Long.MIN_VALUE ? 0 : Math.max(0, entry.timestampNanos() - previousTimestampNanos);
+                previousTimestampNanos = Math.max(previousTimestampNanos, entry.timestampNanos());
+
+                TrafficLog.writeVarLong(output, delta);
+                TrafficLog.writeVarLong(output, entry.productIds().length);
+                for(int productId : entry.productIds())
+                    TrafficLog.writeVarLong(output, productId);
+            }
+        }
+        catch (IOException exception){
+            droppedRecords.add(unflushedRecords);
+            writeFailure = exception;
+        }
+        finally {
+            writerStopped = true;
+            dropQueuedEntries();
+        }
+    }
+
+    private void dropQueuedEntries(){
+        while(queue.poll() != null){
+            queuedEntries.decrementAndGet();
+            droppedRecords.increment();
+        }
+    }
+}
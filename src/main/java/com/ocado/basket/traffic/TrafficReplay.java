@@ -0,0 +1,141 @@
+package com.ocado.basket.traffic;
+
+import com.ocado.basket.BasketSplitter;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays traffic log against {@link BasketSplitter} and reports latency distribution and throughput.
+ * <p>
+ * Usage:
+ * <pre>
+ * TrafficReplay --config config.json --log traffic.bin [--threads N] [--max-rate] [--warmup N]
+ * </pre>
+ * <ul>
+ *  <li>{@code --threads} - number of threads sharing one splitter, by default 1.</li>
+ *  <li>{@code --max-rate} - baskets are split as fast as possible instead of at recorded rate.</li>
+ *  <li>{@code --warmup} - number of baskets split before measurement, by default 10000.</li>
+ * </ul>
+ * At recorded rate latency is measured from the time basket was scheduled, so delays caused by
+ * previous slow calls are included (no coordinated omission). At max rate latency is duration of a call.
+ */
+public class TrafficReplay {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_LABELS = {"p50", "p90", "p99", "p99.9"};
+
+    private final BasketSplitter basketSplitter;
+    private final List<TrafficLog.RecordedBasket> baskets;
+
+    public TrafficReplay(BasketSplitter basketSplitter, List<TrafficLog.RecordedBasket> baskets) {
+        this.basketSplitter = basketSplitter;
+        this.baskets = baskets;
+    }
+
+    /**
+     * Result of replay.
+     * @param latenciesNanos sorted latencies of all baskets.
+     * @param elapsedNanos duration of replay.
+     */
+    public record Report(long[] latenciesNanos, long elapsedNanos) {
+
+        public double throughput(){
+            return latenciesNanos.length / (elapsedNanos / 1e9);
+        }
+
+        public long percentileNanos(double percentile){
+            if(latenciesNanos.length == 0)
+                return 0;
+            int index = (int) Math.ceil(percentile / 100 * latenciesNanos.length) - 1;
+            return latenciesNanos[Math.max(0, Math.min(index, latenciesNanos.length - 1))];
+        }
+    }
+
+    /**
+     * Replays all baskets.
+     * Steps:
+     *  1) Starts threads, which take consecutive baskets from shared counter.
+     *  2) At recorded rate every thread waits until basket is due (recorded offset from start of replay).
+     *  3) Measures latency of every basket in array indexed by basket, so threads do not share any lock.
+     * @param threads number of threads.
+     * @param recordedRate true to keep recorded rate, false to replay as fast as possible.
+     * @return replay report.
+     */
+    public Report replay(int threads, boolean recordedRate) throws Exception {
+        long[] latencies = new long[baskets.size()];
+        AtomicInteger nextBasket = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try{
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for(int thread = 0; thread < threads; thread++){
+                futures.add(executor.submit(() -> {
+                    for(int index = nextBasket.getAndIncrement(); index < baskets.size(); index = nextBasket.getAndIncrement()){
+                        TrafficLog.RecordedBasket basket = baskets.get(index);
+                        long begin = System.nanoTime();
+                        if(recordedRate){
+                            long scheduled = start + basket.offsetNanos();
+                            for(long now = begin; now < scheduled; now = System.nanoTime())
+                                LockSupport.parkNanos(scheduled - now);
+                            begin = scheduled;
+                        }
+                        basketSplitter.split(basket.items());
+                        latencies[index] = System.nanoTime() - begin;
+                    }
+                    return null;
+                }));
+            }
+            for(Future<?> future : futures)
+                future.get();
+            long elapsed = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+            return new Report(latencies, elapsed);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for(int i = 0; i < args.length; i++){
+            if(args[i].equals("--max-rate"))
+                options.put(args[i], "true");
+            else if(i + 1 < args.length)
+                options.put(args[i], args[++i]);
+        }
+        if(!options.containsKey("--config") || !options.containsKey("--log"))
+            throw new IllegalArgumentException("Missing required options --config and --log");
+
+        int threads = Integer.parseInt(options.getOrDefault("--threads", "1"));
+        int warmup = Integer.parseInt(options.getOrDefault("--warmup", "10000"));
+        boolean recordedRate = !options.containsKey("--max-rate");
+
+        BasketSplitter basketSplitter = new BasketSplitter(options.get("--config"));
+        List<TrafficLog.RecordedBasket> baskets = TrafficLog.read(Path.of(options.get("--log")), basketSplitter.getProducts());
+        if(baskets.isEmpty())
+            throw new IllegalArgumentException("Traffic log is empty");
+
+        for(int i = 0; i < warmup; i++)
+            basketSplitter.split(baskets.get(i % baskets.size()).items());
+
+        Report report = new TrafficReplay(basketSplitter, baskets).replay(threads, recordedRate);
+
+        long recordedNanos = baskets.get(baskets.size() - 1).offsetNanos();
+        System.out.printf("baskets:      %d%n", baskets.size());
+        System.out.printf("mode:         %s, %d thread(s)%n", recordedRate ? "recorded rate" : "max rate", threads);
+        System.out.printf("recorded:     %.3f s%n", recordedNanos / 1e9);
+        System.out.printf("elapsed:      %.3f s%n", report.elapsedNanos() / 1e9);
+        System.out.printf("throughput:   %.0f baskets/s%n", report.throughput());
+        for(int i = 0; i < PERCENTILES.length; i++)
+            System.out.printf("%-13s %.1f us%n", PERCENTILE_LABELS[i] + ":", report.percentileNanos(PERCENTILES[i]) / 1e3);
+        System.out.printf("max:          %.1f us%n", report.latenciesNanos()[report.latenciesNanos().length - 1] / 1e3);
+    }
+}
@@ -0,0 +1,94 @@
+package unit;
+
+import com.google.common.collect.LinkedHashMultiset;
+import com.google.common.collect.Multiset;
+import com.ocado.basket.BasketSplitterForTests;
+import com.ocado.basket.DeliveryTypeStatistics;
+import com.ocado.basket.error.InvalidConfigurationException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveOrderingTest {
+
+    private static final List<List<String>> BASKETS = List.of(
+            List.of("Haggis", "Longan", "Emulsifier", "Corn Syrup", "Cocoa Butter", "Beans"),
+            List.of("Haggis", "Corn Syrup"),
+            List.of("Longan", "Cocoa Butter", "Beans", "Beans"),
+            List.of("Emulsifier"),
+            List.of());
+
+    private BasketSplitterForTests basketSplitterForTests;
+    private BasketSplitterForTests adaptiveBasketSplitterForTests;
+
+    @Before
+    public void setup(){
+        basketSplitterForTests = new BasketSplitterForTests("src/test/resources/config.json");
+        adaptiveBasketSplitterForTests = new BasketSplitterForTests("src/test/resources/config.json", true);
+    }
+
+    @Test
+    public void getDeliveryTypeStatistics_disabledByDefault(){
+        assertTrue(basketSplitterForTests.getDeliveryTypeStatistics().isEmpty());
+        assertTrue(adaptiveBasketSplitterForTests.getDeliveryTypeStatistics().isPresent());
+    }
+
+    @Test
+    public void split_adaptive_sameResultAsDefault() throws InvalidConfigurationException {
+        // repeated rounds make sure that learned order does not change results
+        for(int round = 0; round < 3; round++){
+            for(List<String> basket : BASKETS)
+                assertEquals(basketSplitterForTests.split(basket), adaptiveBasketSplitterForTests.split(basket));
+        }
+    }
+
+    @Test
+    public void findBestDeliveryGroupAdaptively_sameAsMinimalGroupWithTheMostItems(){
+        for(List<String> basket : BASKETS){
+            Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests.assignItemsToDeliveryGroups(LinkedHashMultiset.create(basket));
+            List<Set<String>> deliveryGroups = basketSplitterForTests.findMinimalDeliveryGroups(LinkedHashMultiset.create(basket), assignedItemsToDeliveryGroups);
+            Set<String> expected = basketSplitterForTests.getDeliveryGroupWithTheMostItems(deliveryGroups, assignedItemsToDeliveryGroups);
+
+            Set<String> result = adaptiveBasketSplitterForTests.findBestDeliveryGroupAdaptively(LinkedHashMultiset.create(basket), assignedItemsToDeliveryGroups);
+
+            assertEquals(expected, result);
+        }
+    }
+
+    @Test
+    public void split_adaptive_recordsChosenDeliveryGroup() throws InvalidConfigurationException {
+        DeliveryTypeStatistics statistics = adaptiveBasketSplitterForTests.getDeliveryTypeStatistics().get();
+
+        Map<String, List<String>> result = adaptiveBasketSplitterForTests.split(BASKETS.get(0));
+
+        for(String deliveryType : statistics.deliveryTypes())
+            assertEquals(result.containsKey(deliveryType) ? 1 : 0, statistics.count(deliveryType));
+        assertEquals(1, statistics.count("Mailbox delivery", "Parcel locker"));
+        assertEquals(0, statistics.count("In-store pick-up", "Parcel locker"));
+    }
+
+    @Test
+    public void exportTo_importFrom_roundTrip() throws Exception {
+        for(List<String> basket : BASKETS)
+            adaptiveBasketSplitterForTests.split(basket);
+        DeliveryTypeStatistics statistics = adaptiveBasketSplitterForTests.getDeliveryTypeStatistics().get();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        statistics.exportTo(output);
+
+        DeliveryTypeStatistics imported = new BasketSplitterForTests("src/test/resources/config.json", true).getDeliveryTypeStatistics().get();
+        imported.importFrom(new ByteArrayInputStream(output.toByteArray()));
+
+        for(String deliveryType : statistics.deliveryTypes()){
+            assertEquals(statistics.count(deliveryType), imported.count(deliveryType));
+            for(String otherDeliveryType : statistics.deliveryTypes())
+                assertEquals(statistics.count(deliveryType, otherDeliveryType), imported.count(deliveryType, otherDeliveryType));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package unit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ocado.basket.BasketSplitter;
+import com.ocado.basket.batch.BasketFilePartitioner;
+import com.ocado.basket.batch.Partition;
+import com.ocado.basket.batch.PartitionCheckpoint;
+import com.ocado.basket.batch.PartitionWorker;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BasketSplitterBatchTest {
+
+    private static final String BASKETS =
+            "[\"Haggis\", \"Longan\"]\n" +
+            "[\"Emulsifier\", \"Corn Syrup\", \"Cocoa Butter\"]\n" +
+            "[\"Beans\"]\n" +
+            "[\"Haggis\", \"Beans\", \"Longan\"]\n" +
+            "[\"Corn Syrup\"]";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path writeBaskets() throws Exception {
+        Path input = temporaryFolder.newFile("baskets.jsonl").toPath();
+        Files.writeString(input, BASKETS);
+        return input;
+    }
+
+    @Test
+    public void partition_boundariesAreRecordAligned() throws Exception {
+        Path input = writeBaskets();
+        byte[] content = Files.readAllBytes(input);
+
+        List<Partition> partitions = BasketFilePartitioner.partition(input, 3);
+
+        assertEquals(3, partitions.size());
+        assertEquals(0, partitions.get(0).start());
+        assertEquals(content.length, partitions.get(2).end());
+        for(int i = 1; i < partitions.size(); i++){
+            assertEquals(partitions.get(i - 1).end(), partitions.get(i).start());
+            assertEquals('\n', content[(int) partitions.get(i).start() - 1]);
+        }
+    }
+
+    @Test
+    public void partition_moreThanRecords_emptyPartitions() throws Exception {
+        Path input = writeBaskets();
+
+        List<Partition> partitions = BasketFilePartitioner.partition(input, 20);
+
+        long nonEmpty = partitions.stream().filter(partition -> !partition.isEmpty()).count();
+        assertTrue(nonEmpty <= 5);
+        assertEquals(Files.size(input), partitions.stream().mapToLong(Partition::length).sum());
+    }
+
+    @Test
+    public void worker_resumesFromCheckpoint() throws Exception {
+        Path input = writeBaskets();
+        Path completeOutput = temporaryFolder.newFolder("complete").toPath();
+        Path resumedOutput = temporaryFolder.newFolder("resumed").toPath();
+        BasketSplitter basketSplitter = new BasketSplitter("src/test/resources/config.json");
+        ObjectMapper mapper = new ObjectMapper();
+        Partition partition = BasketFilePartitioner.partition(input, 1).get(0);
+
+        PartitionCheckpoint complete = new PartitionWorker(basketSplitter, mapper, input, partition, completeOutput, 2).call();
+        assertTrue(complete.isCompleted());
+        assertEquals(5, complete.processedRecords());
+
+        // simulate crash after the first checkpoint - garbage written after checkpoint must be discarded
+        List<String> lines = Files.readAllLines(PartitionWorker.outputFile(completeOutput, partition));
+        String checkpointedOutput = lines.get(0) + "\n" + lines.get(1) + "\n";
+        Files.writeString(PartitionWorker.outputFile(resumedOutput, partition), checkpointedOutput + "{\"partial");
+        long offset = BASKETS.indexOf("[\"Beans\"]");
+        new PartitionCheckpoint(partition, offset, checkpointedOutput.length(), 2)
+                .write(PartitionWorker.checkpointFile(resumedOutput, partition));
+
+        PartitionCheckpoint resumed = new PartitionWorker(basketSplitter, mapper, input, partition, resumedOutput, 2).call();
+
+        assertEquals(complete, resumed);
+        assertEquals(Files.readString(PartitionWorker.outputFile(completeOutput, partition)),
+                Files.readString(PartitionWorker.outputFile(resumedOutput, partition)));
+    }
+
+    @Test
+    public void worker_invalidRecords_errorLinesWrittenAndPartitionCompleted() throws Exception {
+        String baskets =
+                "[\"Haggis\", \"Longan\"]\n" +
+                "[\"Beans\"\n" +
+                "\n" +
+                "[\"Unknown product\"]\n" +
+                "[\"Corn Syrup\"]";
+        Path input = temporaryFolder.newFile("invalid.jsonl").toPath();
+        Files.writeString(input, baskets);
+        Path output = temporaryFolder.newFolder("invalid").toPath();
+        ObjectMapper mapper = new ObjectMapper();
+        Partition partition = BasketFilePartitioner.partition(input, 1).get(0);
+
+        PartitionCheckpoint checkpoint = new PartitionWorker(new BasketSplitter("src/test/resources/config.json"), mapper, input, partition, output, 1).call();
+
+        assertTrue(checkpoint.isCompleted());
+        assertEquals(4, checkpoint.processedRecords());
+        List<String> lines = Files.readAllLines(PartitionWorker.outputFile(output, partition));
+        assertEquals(4, lines.size());
+        assertEquals(baskets.indexOf("[\"Beans\""), mapper.readTree(lines.get(1)).path("error").path("offset").asLong());
+        assertEquals(baskets.indexOf("[\"Unknown"), mapper.readTree(lines.get(2)).path("error").path("offset").asLong());
+        assertEquals("Product not found in configuration: Unknown product", mapper.readTree(lines.get(2)).path("error").path("message").asText());
+        assertFalse(mapper.readTree(lines.get(3)).has("error"));
+    }
+
+    @Test
+    public void checkpoint_emptyFile_ioExceptionNamingFile() throws Exception {
+        Path input = writeBaskets();
+        Partition partition = BasketFilePartitioner.partition(input, 1).get(0);
+        Path checkpointFile = temporaryFolder.newFile("partition-00000.checkpoint").toPath();
+
+        try{
+            PartitionCheckpoint.read(checkpointFile, partition);
+            fail("Empty checkpoint was read");
+        }
+        catch (IOException exception){
+            assertTrue(exception.getMessage().contains(checkpointFile.toString()));
+        }
+    }
+
+    @Test
+    public void checkpoint_writtenAndRead_sameCheckpoint() throws Exception {
+        Path input = writeBaskets();
+        Partition partition = BasketFilePartitioner.partition(input, 1).get(0);
+        Path checkpointFile = temporaryFolder.getRoot().toPath().resolve("partition-00000.checkpoint");
+        PartitionCheckpoint checkpoint = new PartitionCheckpoint(partition, 10, 20, 2);
+
+        checkpoint.write(checkpointFile);
+
+        assertEquals(Optional.of(checkpoint), PartitionCheckpoint.read(checkpointFile, partition));
+        assertFalse(Files.exists(checkpointFile.resolveSibling("partition-00000.checkpoint.tmp")));
+    }
+}
@@ -3,6 +3,7 @@ package unit;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.google.common.collect.HashMultiset;
+import com.google.common.collect.LinkedHashMultiset;
 import com.google.common.collect.Multiset;
 import com.ocado.basket.BasketSplitterForTests;
 import com.ocado.basket.error.InvalidConfigurationException;
@@ -11,8 +12,14 @@ import org.junit.Test;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class BasketSplitterTest{
 
@@ -83,7 +90,7 @@ public class BasketSplitterTest{
         expected.put("Mailbox delivery",HashMultiset.create());
         expected.put("Parcel locker",HashMultiset.create());
 
-        Map<String, Multiset<String>> result = basketSplitterForTests.assignItemsToDeliveryGroups(items);
+        Map<String, Multiset<String>> result = basketSplitterForTests.assignItemsToDeliveryGroups(LinkedHashMultiset.create(items));
 
         assertEquals(expected, result);
     }
@@ -99,7 +106,7 @@ public class BasketSplitterTest{
         expected.put("Parcel locker",HashMultiset.create(List.of("Emulsifier","Beans")));
 
 
-        Map<String, Multiset<String>> result = basketSplitterForTests.assignItemsToDeliveryGroups(items);
+        Map<String, Multiset<String>> result = basketSplitterForTests.assignItemsToDeliveryGroups(LinkedHashMultiset.create(items));
         assertEquals(expected, result);
     }
 
@@ -107,9 +114,9 @@ public class BasketSplitterTest{
     @Test
     public void findMinimalDeliveryGroup_correct(){
         List<String> items = List.of("Haggis", "Longan", "Emulsifier", "Corn Syrup", "Cocoa Butter", "Beans");
-        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests.assignItemsToDeliveryGroups(items);
+        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests.assignItemsToDeliveryGroups(LinkedHashMultiset.create(items));
 
-        List<Set<String>> result = basketSplitterForTests.findMinimalDeliveryGroups(items, assignedItemsToDeliveryGroups);
+        List<Set<String>> result = basketSplitterForTests.findMinimalDeliveryGroups(LinkedHashMultiset.create(items), assignedItemsToDeliveryGroups);
 
         Set<String> expectedSet = new HashSet<>(List.of("Next day shipping","Mailbox delivery","Parcel locker"));
         List<Set<String>> expected = List.of(expectedSet);
@@ -121,9 +128,9 @@ public class BasketSplitterTest{
     @Test
     public void findMinimalDeliveryGroup_emptyItemList(){
         List<String> items = List.of();
-        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests.assignItemsToDeliveryGroups(items);
+        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests.assignItemsToDeliveryGroups(LinkedHashMultiset.create(items));
 
-        List<Set<String>> result = basketSplitterForTests.findMinimalDeliveryGroups(items, assignedItemsToDeliveryGroups);
+        List<Set<String>> result = basketSplitterForTests.findMinimalDeliveryGroups(LinkedHashMultiset.create(items), assignedItemsToDeliveryGroups);
 
         List<Set<String>> expected = List.of(new HashSet<>(List.of()));
 
@@ -135,13 +142,48 @@ public class BasketSplitterTest{
         List<String> items = List.of("Haggis", "Longan", "Emulsifier", "Corn Syrup", "Cocoa Butter", "Beans");
         Map<String, Multiset<String>> assignedItemsToDeliveryGroups = Map.of();
 
-        List<Set<String>> result = basketSplitterForTests.findMinimalDeliveryGroups(items, assignedItemsToDeliveryGroups);
+        List<Set<String>> result = basketSplitterForTests.findMinimalDeliveryGroups(LinkedHashMultiset.create(items), assignedItemsToDeliveryGroups);
 
         List<Set<String>> expected = List.of();
 
         assertEquals(expected, result);
     }
 
+    @Test
+    public void findMinimalDeliveryGroup_severalGroups_powerSetOrder(){
+        List<String> items = List.of("Haggis", "Cocoa Butter");
+        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests.assignItemsToDeliveryGroups(LinkedHashMultiset.create(items));
+
+        List<Set<String>> result = basketSplitterForTests.findMinimalDeliveryGroups(LinkedHashMultiset.create(items), assignedItemsToDeliveryGroups);
+
+        Set<Set<String>> expected = Set.of(Set.of("In-store pick-up", "Mailbox delivery"), Set.of("Next day shipping", "Mailbox delivery"));
+
+        assertEquals(expected, new HashSet<>(result));
+        assertEquals(expected.size(), result.size());
+    }
+
+    @Test
+    public void revolvingDoorOrder_minimalChange(){
+        for(int numberOfDeliveryTypes = 0; numberOfDeliveryTypes <= 10; numberOfDeliveryTypes++){
+            for(int size = 0; size <= numberOfDeliveryTypes; size++){
+                BasketSplitterForTests.RevolvingDoorOrder deliveryGroups = new BasketSplitterForTests.RevolvingDoorOrder(numberOfDeliveryTypes, size);
+
+                Set<Integer> unique = new HashSet<>();
+                int previousDeliveryGroup = -1;
+                for(int deliveryGroup = deliveryGroups.next(); deliveryGroup >= 0; deliveryGroup = deliveryGroups.next()){
+                    assertEquals(size, Integer.bitCount(deliveryGroup));
+                    assertEquals(0, deliveryGroup >>> numberOfDeliveryTypes);
+                    assertTrue(unique.add(deliveryGroup));
+                    if(previousDeliveryGroup >= 0)
+                        assertEquals(2, Integer.bitCount(previousDeliveryGroup ^ deliveryGroup));
+                    previousDeliveryGroup = deliveryGroup;
+                }
+                int currentSize = size;
+                assertEquals(IntStream.range(0, 1 << numberOfDeliveryTypes).filter(mask -> Integer.bitCount(mask) == currentSize).count(), unique.size());
+            }
+        }
+    }
+
     @Test
     public void getDeliveryGroupWithTheMostItems_correct(){
         List<Set<String>> deliveryGroups = List.of(Set.of("In-store pick-up", "Mailbox delivery","Parcel locker"), Set.of("Next day shipping","Mailbox delivery","Parcel locker"));
@@ -150,7 +192,7 @@ public class BasketSplitterTest{
 
         List<String> items = List.of("Haggis", "Longan", "Emulsifier", "Corn Syrup", "Cocoa Butter", "Beans");
 
-        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests2.assignItemsToDeliveryGroups(items);
+        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests2.assignItemsToDeliveryGroups(LinkedHashMultiset.create(items));
 
         Set<String> result = basketSplitterForTests.getDeliveryGroupWithTheMostItems(deliveryGroups, assignedItemsToDeliveryGroups);
 
@@ -167,7 +209,7 @@ public class BasketSplitterTest{
 
         List<String> items = List.of("Haggis", "Longan", "Emulsifier", "Corn Syrup", "Cocoa Butter", "Beans");
 
-        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests2.assignItemsToDeliveryGroups(items);
+        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests2.assignItemsToDeliveryGroups(LinkedHashMultiset.create(items));
 
         Set<String> result = basketSplitterForTests.getDeliveryGroupWithTheMostItems(deliveryGroups, assignedItemsToDeliveryGroups);
 
@@ -197,14 +239,14 @@ public class BasketSplitterTest{
 
         BasketSplitterForTests basketSplitterForTests2 = new BasketSplitterForTests("src/test/resources/config2.json");
 
-        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests2.assignItemsToDeliveryGroups(items);
+        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests2.assignItemsToDeliveryGroups(LinkedHashMultiset.create(items));
 
         Set<String> bestGroup = Set.of("In-store pick-up", "Mailbox delivery","Parcel locker");
 
         Map<String, Multiset<String>> assignedItemsToBestDeliveryGroup = new HashMap<>(assignedItemsToDeliveryGroups);
         assignedItemsToBestDeliveryGroup.keySet().retainAll(bestGroup);
 
-        Map<String, List<String>> result = basketSplitterForTests2.assignItemsFromBasketToSpecificDeliveryTypes(items, assignedItemsToBestDeliveryGroup);
+        Map<String, List<String>> result = basketSplitterForTests2.assignItemsFromBasketToSpecificDeliveryTypes(LinkedHashMultiset.create(items), assignedItemsToBestDeliveryGroup);
 
         Map<String, List<String>> expected = Map.of("In-store pick-up", List.of("Longan", "Corn Syrup", "Emulsifier", "Haggis"), "Mailbox delivery", List.of("Cocoa Butter"), "Parcel locker", List.of("Beans"));
 
@@ -217,14 +259,14 @@ public class BasketSplitterTest{
 
         BasketSplitterForTests basketSplitterForTests2 = new BasketSplitterForTests("src/test/resources/config2.json");
 
-        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests2.assignItemsToDeliveryGroups(items);
+        Map<String, Multiset<String>> assignedItemsToDeliveryGroups = basketSplitterForTests2.assignItemsToDeliveryGroups(LinkedHashMultiset.create(items));
 
         Set<String> bestGroup = Set.of();
 
         Map<String, Multiset<String>> assignedItemsToBestDeliveryGroup = new HashMap<>(assignedItemsToDeliveryGroups);
         assignedItemsToBestDeliveryGroup.keySet().retainAll(bestGroup);
 
-        Map<String, List<String>> result = basketSplitterForTests2.assignItemsFromBasketToSpecificDeliveryTypes(items, assignedItemsToBestDeliveryGroup);
+        Map<String, List<String>> result = basketSplitterForTests2.assignItemsFromBasketToSpecificDeliveryTypes(LinkedHashMultiset.create(items), assignedItemsToBestDeliveryGroup);
 
         Map<String, List<String>> expected = Map.of();
 
@@ -239,7 +281,7 @@ public class BasketSplitterTest{
 
         Map<String, Multiset<String>> assignedItemsToBestDeliveryGroup = new HashMap<>();
 
-        Map<String, List<String>> result = basketSplitterForTests2.assignItemsFromBasketToSpecificDeliveryTypes(items, assignedItemsToBestDeliveryGroup);
+        Map<String, List<String>> result = basketSplitterForTests2.assignItemsFromBasketToSpecificDeliveryTypes(LinkedHashMultiset.create(items), assignedItemsToBestDeliveryGroup);
 
         Map<String, List<String>> expected = Map.of();
 
@@ -294,5 +336,57 @@ public class BasketSplitterTest{
 
     }
 
+    @Test
+    public void split_sharedBetweenThreads_sameResultsAsSingleThread() throws Exception {
+        splitConcurrently(new BasketSplitterForTests("src/test/resources/config.json"), new BasketSplitterForTests("src/test/resources/config.json"));
+    }
+
+    @Test
+    public void split_adaptiveSharedBetweenThreads_sameResultsAsSingleThread() throws Exception {
+        splitConcurrently(new BasketSplitterForTests("src/test/resources/config.json", true), new BasketSplitterForTests("src/test/resources/config.json", true));
+    }
+
+    private static void splitConcurrently(BasketSplitterForTests singleThreadSplitter, BasketSplitterForTests sharedSplitter) throws Exception {
+        int threads = 8;
+        int rounds = 20;
+        List<String> products = singleThreadSplitter.getProducts();
+        Random random = new Random(42);
+        List<List<String>> baskets = new ArrayList<>();
+        for(int i = 0; i < 200; i++){
+            List<String> basket = new ArrayList<>();
+            for(int j = random.nextInt(20); j >= 0; j--)
+                basket.add(products.get(random.nextInt(products.size())));
+            baskets.add(basket);
+        }
 
+        List<Map<String, List<String>>> expected = new ArrayList<>();
+        for(List<String> basket : baskets)
+            expected.add(singleThreadSplitter.split(basket));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try{
+            List<Future<Integer>> futures = new ArrayList<>();
+            for(int thread = 0; thread < threads; thread++){
+                int firstBasket = thread * baskets.size() / threads;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    int mismatches = 0;
+                    for(int i = 0; i < rounds * baskets.size(); i++){
+                        int basket = (firstBasket + i) % baskets.size();
+                        if(!expected.get(basket).equals(sharedSplitter.split(baskets.get(basket))))
+                            mismatches++;
+                    }
+                    return mismatches;
+                }));
+            }
+            start.countDown();
+
+            for(Future<Integer> future : futures)
+                assertEquals(0, (int) future.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
 }
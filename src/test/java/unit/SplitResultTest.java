@@ -0,0 +1,128 @@
+package unit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.ocado.basket.BasketSplitterForTests;
+import com.ocado.basket.SplitResult;
+import com.ocado.basket.error.InvalidConfigurationException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SplitResultTest {
+
+    private static final List<String> ITEMS = List.of("Haggis", "Longan", "Emulsifier", "Corn Syrup", "Cocoa Butter", "Beans");
+
+    private BasketSplitterForTests basketSplitterForTests;
+
+    @Before
+    public void setup(){
+        basketSplitterForTests = new BasketSplitterForTests("src/test/resources/config2.json");
+    }
+
+    @Test
+    public void splitToResult_mapViewEqualsExpectedAssignment() throws InvalidConfigurationException {
+        SplitResult result = basketSplitterForTests.splitToResult(ITEMS);
+
+        Map<String, List<String>> expected = Map.of("In-store pick-up", List.of("Longan", "Corn Syrup", "Emulsifier", "Haggis"), "Mailbox delivery", List.of("Cocoa Butter"), "Parcel locker", List.of("Beans"));
+
+        assertEquals(expected, result);
+        assertEquals(expected.hashCode(), result.hashCode());
+        assertEquals(ITEMS.size(), result.itemCount());
+        assertEquals(3, result.deliveryTypeCount());
+    }
+
+    @Test
+    public void splitToResult_itemIndexesMappedToDeliveryTypes() throws InvalidConfigurationException {
+        SplitResult result = basketSplitterForTests.splitToResult(ITEMS);
+
+        for(int i = 0; i < result.itemCount(); i++){
+            String deliveryType = result.deliveryType(result.deliveryTypeId(i));
+            assertTrue(result.get(deliveryType).contains(result.item(i)));
+        }
+    }
+
+    @Test
+    public void writeTo_sameJsonAsObjectMapperForMap() throws Exception {
+        SplitResult result = basketSplitterForTests.splitToResult(ITEMS);
+        ObjectMapper mapper = new ObjectMapper();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        result.writeTo(output);
+
+        Map<String, List<String>> copy = new LinkedHashMap<>(result);
+        assertEquals(mapper.writeValueAsString(copy), output.toString(StandardCharsets.UTF_8));
+        assertEquals(mapper.writeValueAsString(copy), mapper.writeValueAsString(result));
+    }
+
+    public static class Assignment {
+        public Object result;
+    }
+
+    @Test
+    public void serializeWithType_defaultTyping_typeIdWritten() throws Exception {
+        Assignment assignment = new Assignment();
+        assignment.result = basketSplitterForTests.splitToResult(ITEMS);
+        ObjectMapper mapper = new ObjectMapper()
+                .activateDefaultTyping(LaissezFaireSubTypeValidator.instance, ObjectMapper.DefaultTyping.NON_FINAL);
+
+        String json = mapper.writeValueAsString(assignment);
+
+        // default typing wraps value in array [type id, value]
+        JsonNode result = new ObjectMapper().readTree(json).get(1).get("result");
+        assertTrue(result.isArray());
+        assertEquals(SplitResult.class.getName(), result.get(0).asText());
+        assertEquals(new ObjectMapper().valueToTree(new LinkedHashMap<>((SplitResult) assignment.result)), result.get(1));
+    }
+
+    @Test
+    public void splitToResult_duplicatedItems_storedAsRuns() throws InvalidConfigurationException {
+        List<String> items = new ArrayList<>();
+        for(int i = 0; i < 1000; i++)
+            items.addAll(ITEMS);
+
+        SplitResult result = basketSplitterForTests.splitToResult(items);
+
+        assertEquals(ITEMS.size(), result.runCount());
+        assertEquals(items.size(), result.itemCount());
+        for(int run = 0; run < result.runCount(); run++)
+            assertEquals(1000, result.countOfRun(run));
+
+        Map<String, List<String>> expected = new HashMap<>();
+        for(Map.Entry<String, List<String>> entry : basketSplitterForTests.splitToResult(ITEMS).entrySet()){
+            List<String> expandedItems = new ArrayList<>();
+            for(String item : entry.getValue())
+                expandedItems.addAll(Collections.nCopies(1000, item));
+            expected.put(entry.getKey(), expandedItems);
+        }
+        assertEquals(expected, result);
+
+        for(Map.Entry<String, List<String>> entry : result.entrySet()){
+            List<String> view = entry.getValue();
+            for(int i = 0; i < view.size(); i += 250)
+                assertEquals(expected.get(entry.getKey()).get(i), view.get(i));
+        }
+        for(int i = 0; i < result.itemCount(); i += 333)
+            assertTrue(result.get(result.deliveryType(result.deliveryTypeId(i))).contains(result.item(i)));
+    }
+
+    @Test
+    public void splitToResult_emptyItemList() throws InvalidConfigurationException {
+        SplitResult result = basketSplitterForTests.splitToResult(List.of());
+
+        assertEquals(Map.of(), result);
+        assertEquals(0, result.itemCount());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mapView_isUnmodifiable() throws InvalidConfigurationException {
+        basketSplitterForTests.splitToResult(ITEMS).put("Parcel locker", List.of());
+    }
+}
@@ -0,0 +1,110 @@
+package unit;
+
+import com.ocado.basket.BasketSplitter;
+import com.ocado.basket.traffic.TrafficLog;
+import com.ocado.basket.traffic.TrafficRecorder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TrafficRecorderTest {
+
+    private static final List<List<String>> BASKETS = List.of(
+            List.of("Haggis", "Longan", "Emulsifier", "Corn Syrup", "Cocoa Butter", "Beans"),
+            List.of("Beans", "Beans", "Haggis"),
+            List.of());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private BasketSplitter basketSplitter;
+    private Path log;
+
+    @Before
+    public void setup(){
+        basketSplitter = new BasketSplitter("src/test/resources/config.json");
+        log = temporaryFolder.getRoot().toPath().resolve("traffic.bin");
+    }
+
+    @Test
+    public void startRecording_splitInputsReadBack() throws Exception {
+        try(TrafficRecorder recorder = TrafficRecorder.open(log, basketSplitter.getProducts())){
+            basketSplitter.startRecording(recorder);
+            for(List<String> basket : BASKETS)
+                basketSplitter.split(basket);
+            basketSplitter.stopRecording();
+            // not recorded anymore
+            basketSplitter.split(BASKETS.get(0));
+        }
+
+        List<TrafficLog.RecordedBasket> recorded = TrafficLog.read(log, basketSplitter.getProducts());
+
+        List<List<String>> items = new ArrayList<>();
+        for(TrafficLog.RecordedBasket basket : recorded)
+            items.add(basket.items());
+        assertEquals(BASKETS, items);
+        assertEquals(0, recorded.get(0).offsetNanos());
+        for(int i = 1; i < recorded.size(); i++)
+            assertTrue(recorded.get(i).offsetNanos() >= recorded.get(i - 1).offsetNanos());
+    }
+
+    @Test
+    public void record_unknownProductOrClosedRecorder_dropped() throws IOException {
+        TrafficRecorder recorder = TrafficRecorder.open(log, basketSplitter.getProducts());
+        recorder.record(List.of("Haggis", "Unknown product"));
+        recorder.close();
+        recorder.record(List.of("Haggis"));
+
+        assertEquals(2, recorder.droppedRecords());
+        assertEquals(0, recorder.writtenRecords());
+        assertEquals(List.of(), TrafficLog.read(log, basketSplitter.getProducts()));
+    }
+
+    @Test
+    public void close_writeFailed_errorThrownOnEveryCall() throws IOException {
+        OutputStream failingOutput = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("No space left on device");
+            }
+        };
+        TrafficRecorder recorder = TrafficRecorder.open(failingOutput, basketSplitter.getProducts(), TrafficRecorder.DEFAULT_CAPACITY);
+        recorder.record(BASKETS.get(0));
+        recorder.record(BASKETS.get(1));
+
+        for(int call = 0; call < 2; call++){
+            try{
+                recorder.close();
+                fail("write failure was not reported");
+            }
+            catch (IOException exception){
+                assertEquals("No space left on device", exception.getMessage());
+            }
+        }
+        // writer has stopped, so record is not left in queue
+        recorder.record(BASKETS.get(2));
+
+        assertEquals(0, recorder.writtenRecords());
+        assertEquals(3, recorder.droppedRecords());
+    }
+
+    @Test(expected = IOException.class)
+    public void read_differentConfiguration_errorThrown() throws IOException {
+        try(TrafficRecorder recorder = TrafficRecorder.open(log, basketSplitter.getProducts())){
+            recorder.record(BASKETS.get(0));
+        }
+
+        TrafficLog.read(log, List.of("Haggis", "Longan", "Beans"));
+    }
+}